@@ -0,0 +1,94 @@
+package com.payufin.integration.ratelimiter.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@link com.payufin.integration.ratelimiter.aspects.MethodAspect}: plan lookup, key
+ * extraction and config lookup, with a backend which does no work. The baseline calls the same
+ * function without the aspect.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AspectBenchmark {
+
+    @Param({"HOT", "COLD"})
+    public KeyDistribution keyDistribution;
+
+    private ConfigurableApplicationContext context;
+    private LimitedTarget limitedTarget;
+    private LimitedTarget plainTarget;
+    private LimitedTarget.KeyedRequest hotRequest;
+    private LimitedTarget.KeyedRequest[] coldRequests;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkSupport.startContext("noop", "", new Class<?>[0]);
+        limitedTarget = context.getBean(LimitedTarget.class);
+        plainTarget = new LimitedTarget();
+        hotRequest = new LimitedTarget.KeyedRequest(BenchmarkSupport.HOT_KEY);
+        coldRequests = new LimitedTarget.KeyedRequest[BenchmarkSupport.KEY_SPACE];
+        for (int i = 0; i < coldRequests.length; i++) {
+            coldRequests[i] = new LimitedTarget.KeyedRequest(BenchmarkSupport.keys()[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String baseline() {
+        return plainTarget.byStringKey(keyDistribution.nextKey());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String stringKey() {
+        return limitedTarget.byStringKey(keyDistribution.nextKey());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public LimitedTarget.KeyedRequest keyProvider() {
+        return limitedTarget.byKeyProvider(nextRequest());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String stringKeyContended() {
+        return limitedTarget.byStringKey(keyDistribution.nextKey());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public LimitedTarget.KeyedRequest keyProviderContended() {
+        return limitedTarget.byKeyProvider(nextRequest());
+    }
+
+    private LimitedTarget.KeyedRequest nextRequest() {
+        return keyDistribution == KeyDistribution.HOT ? hotRequest : coldRequests[keyDistribution.nextIndex()];
+    }
+}
@@ -0,0 +1,133 @@
+package com.payufin.integration.ratelimiter.benchmarks;
+
+import com.payufin.integration.ratelimiter.aspects.MethodAspect;
+import com.payufin.integration.ratelimiter.backends.InMemoryBucketBackend;
+import com.payufin.integration.ratelimiter.backends.LuaBucketBackend;
+import com.payufin.integration.ratelimiter.backends.RedisBucketBackend;
+import com.payufin.integration.ratelimiter.configs.RateLimitConcurrencyProperties;
+import com.payufin.integration.ratelimiter.configs.RateLimiterRedisConfig;
+import com.payufin.integration.ratelimiter.configs.RedissonAddress;
+import com.payufin.integration.ratelimiter.metrics.RateLimiterMetrics;
+import com.payufin.integration.ratelimiter.services.BucketConfigService;
+import com.payufin.integration.ratelimiter.services.RateLimiterService;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Shared set up of the benchmarks: key space, Spring context of the library per backend and the
+ * local Redis stand-in. Pass -Dbenchmark.redis.address=redis://host:port to run against an
+ * existing Redis instead of the embedded one.
+ */
+
+public final class BenchmarkSupport {
+
+    /**
+     * Larger than the default config and bucket caches, so that cold keys keep missing them.
+     */
+    public static final int KEY_SPACE = 200_000;
+
+    public static final String HOT_KEY = "hot-key";
+
+    public static final String PROVIDER_BEAN_NAME = "stubProvider";
+
+    private static final String[] KEYS = new String[KEY_SPACE];
+
+    static {
+        for (int i = 0; i < KEY_SPACE; i++) {
+            KEYS[i] = "key-" + i;
+        }
+    }
+
+    private BenchmarkSupport() {
+    }
+
+    public static String[] keys() {
+        return KEYS;
+    }
+
+    /**
+     * Starts the embedded Redis unless an external address is given.
+     *
+     * @param port port of the embedded Redis
+     * @return started server, null when an external Redis is used
+     */
+    public static RedisServer startRedis(int port) throws IOException {
+        if (System.getProperty("benchmark.redis.address") != null) {
+            return null;
+        }
+        RedisServer redisServer = RedisServer.newRedisServer()
+                .port(port)
+                .setting("bind 127.0.0.1")
+                .setting("save \"\"")
+                .setting("appendonly no")
+                .build();
+        redisServer.start();
+        return redisServer;
+    }
+
+    public static void stopRedis(RedisServer redisServer) throws IOException {
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    public static String redisAddress(int port) {
+        return System.getProperty("benchmark.redis.address", "redis://127.0.0.1:" + port);
+    }
+
+    /**
+     * Starts the library for the given backend.
+     *
+     * @param backend       redis, redis-lua, in-memory or noop
+     * @param redisAddress  address of Redis, used by the redis backends only
+     * @param extraSources  additional beans of the benchmark
+     * @param extraProperties additional properties, in key=value form
+     * @return started context
+     */
+    public static ConfigurableApplicationContext startContext(String backend, String redisAddress, Class<?>[] extraSources,
+                                                              String... extraProperties) {
+        List<Class<?>> sources = new ArrayList<>(Arrays.asList(BenchmarkConfiguration.class, MethodAspect.class,
+                RateLimiterService.class, BucketConfigService.class, RateLimiterMetrics.class, RateLimitConcurrencyProperties.class,
+                StubRateLimitConfigProvider.class, LimitedTarget.class));
+        if (backend.startsWith("redis")) {
+            sources.add(RedissonAddress.class);
+            sources.add(RateLimiterRedisConfig.class);
+            sources.add("redis-lua".equals(backend) ? LuaBucketBackend.class : RedisBucketBackend.class);
+        } else if ("in-memory".equals(backend)) {
+            sources.add(InMemoryBucketBackend.class);
+        } else {
+            sources.add(NoopBackend.class);
+        }
+        sources.addAll(Arrays.asList(extraSources));
+
+        List<String> properties = new ArrayList<>(Arrays.asList(
+                "rate-limiter.backend=" + backend,
+                "rate-limiter.bucket4j-redisKey.expiry=1",
+                "rate-limiter.bucket4j-redisKey.expiryTimeUnit=HOURS",
+                "redisson.nodeAddresses[0]=" + redisAddress,
+                "spring.main.banner-mode=off",
+                "logging.level.root=WARN"));
+        properties.addAll(Arrays.asList(extraProperties));
+
+        return new SpringApplicationBuilder(sources.toArray(new Class<?>[0]))
+                .web(WebApplicationType.NONE)
+                .properties(properties.toArray(new String[0]))
+                .run();
+    }
+
+    @Configuration
+    @EnableAspectJAutoProxy(proxyTargetClass = true)
+    @EnableConfigurationProperties
+    public static class BenchmarkConfiguration {
+    }
+}
@@ -0,0 +1,54 @@
+package com.payufin.integration.ratelimiter.benchmarks;
+
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link com.payufin.integration.ratelimiter.configs.RateLimitConfigProvider#getRateLimiterDto(String)}
+ * in front of a provider which answers from memory.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigProviderBenchmark {
+
+    @Param({"HOT", "COLD"})
+    public KeyDistribution keyDistribution;
+
+    private StubRateLimitConfigProvider rateLimitConfigProvider;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        rateLimitConfigProvider = new StubRateLimitConfigProvider();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public RateLimiterDto getRateLimiterDto() {
+        return rateLimitConfigProvider.getRateLimiterDto(keyDistribution.nextKey());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public RateLimiterDto getRateLimiterDtoContended() {
+        return rateLimitConfigProvider.getRateLimiterDto(keyDistribution.nextKey());
+    }
+}
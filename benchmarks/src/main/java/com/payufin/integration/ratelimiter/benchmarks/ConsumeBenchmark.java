@@ -0,0 +1,72 @@
+package com.payufin.integration.ratelimiter.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end cost of an annotated call: aspect, config lookup and bucket consumption against
+ * the local Redis stand-in or the in-memory backend.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsumeBenchmark {
+
+    private static final int REDIS_PORT = 6392;
+
+    @Param({"redis", "redis-lua", "in-memory"})
+    public String backend;
+
+    @Param({"HOT", "COLD"})
+    public KeyDistribution keyDistribution;
+
+    private RedisServer redisServer;
+    private ConfigurableApplicationContext context;
+    private LimitedTarget limitedTarget;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        redisServer = BenchmarkSupport.startRedis(REDIS_PORT);
+        context = BenchmarkSupport.startContext(backend, BenchmarkSupport.redisAddress(REDIS_PORT), new Class<?>[0]);
+        limitedTarget = context.getBean(LimitedTarget.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkSupport.stopRedis(redisServer);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String consume() {
+        return limitedTarget.byStringKey(keyDistribution.nextKey());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String consumeContended() {
+        return limitedTarget.byStringKey(keyDistribution.nextKey());
+    }
+}
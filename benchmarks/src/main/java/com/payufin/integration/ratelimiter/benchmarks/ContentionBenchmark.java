@@ -0,0 +1,79 @@
+package com.payufin.integration.ratelimiter.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare-and-swap proxy manager against the Lua script backend with 1, 8 and 64 concurrent
+ * clients. On the hot key every client competes for the same bucket, which is where the retries
+ * of the compare-and-swap loop show up; the cold keys are the uncontended baseline.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentionBenchmark {
+
+    private static final int REDIS_PORT = 6393;
+
+    @Param({"redis", "redis-lua"})
+    public String backend;
+
+    @Param({"HOT", "COLD"})
+    public KeyDistribution keyDistribution;
+
+    private RedisServer redisServer;
+    private ConfigurableApplicationContext context;
+    private LimitedTarget limitedTarget;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        redisServer = BenchmarkSupport.startRedis(REDIS_PORT);
+        context = BenchmarkSupport.startContext(backend, BenchmarkSupport.redisAddress(REDIS_PORT), new Class<?>[0]);
+        limitedTarget = context.getBean(LimitedTarget.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkSupport.stopRedis(redisServer);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String clients1() {
+        return limitedTarget.byStringKey(keyDistribution.nextKey());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String clients8() {
+        return limitedTarget.byStringKey(keyDistribution.nextKey());
+    }
+
+    @Benchmark
+    @Threads(64)
+    public String clients64() {
+        return limitedTarget.byStringKey(keyDistribution.nextKey());
+    }
+}
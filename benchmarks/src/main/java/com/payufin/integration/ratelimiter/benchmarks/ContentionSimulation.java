@@ -0,0 +1,320 @@
+package com.payufin.integration.ratelimiter.benchmarks;
+
+import com.payufin.integration.ratelimiter.models.RateLimitAlgorithm;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import com.payufin.integration.ratelimiter.services.RateLimiterService;
+import io.github.bucket4j.ConsumptionProbe;
+import org.HdrHistogram.Histogram;
+import org.redisson.api.RFuture;
+import org.redisson.client.protocol.RedisCommands;
+import org.redisson.command.CommandSyncService;
+import org.springframework.context.ConfigurableApplicationContext;
+import redis.embedded.RedisServer;
+
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load harness measuring how accurately the limits hold when several nodes share the same keys.
+ * It starts simulation.nodes Spring contexts of the library, each with its own Redis connections
+ * and proxy manager, against the local Redis stand-in, and calls {@link RateLimiterService} from
+ * simulation.threads client threads per node for simulation.durationSeconds. Every comma separated
+ * value of simulation.threads is a step run on fresh keys, so that the steps show how throughput
+ * and latency degrade as the concurrency rises.
+ * <p>
+ * For every step it reports the decisions per second, the calls admitted against the calls an
+ * exact token bucket would have allowed, the calls admitted over that bound, the p50 and p99
+ * latency of a check, and the Redis commands and scripts per decision, where the commands include
+ * those run by the scripts. A key may admit at most maxLimit calls plus what refills between its
+ * first and last admission, and never more than it was called.
+ * <pre>
+ * java -Dsimulation.nodes=4 -Dsimulation.threads=1,8,32 -Dsimulation.keyDistribution=ZIPF \
+ *      -cp target/benchmarks.jar com.payufin.integration.ratelimiter.benchmarks.ContentionSimulation
+ * </pre>
+ */
+
+public final class ContentionSimulation {
+
+    private static final int REDIS_PORT = 6394;
+
+    /**
+     * Commands Redis runs for the connections themselves and the harness, not for a decision.
+     */
+    private static final Set<String> CONNECTION_COMMANDS = new HashSet<>(Arrays.asList(
+            "cmdstat_info", "cmdstat_ping", "cmdstat_client", "cmdstat_select", "cmdstat_hello", "cmdstat_command"));
+
+    private static final Set<String> SCRIPT_COMMANDS = new HashSet<>(Arrays.asList("cmdstat_eval", "cmdstat_evalsha"));
+
+    private final Settings settings;
+
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+    private ContentionSimulation(Settings settings) {
+        this.settings = settings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = new Settings();
+        RedisServer redisServer = settings.backend.startsWith("redis") ? BenchmarkSupport.startRedis(REDIS_PORT) : null;
+        ContentionSimulation simulation = new ContentionSimulation(settings);
+        try {
+            simulation.run();
+        } finally {
+            simulation.nodes.forEach(ConfigurableApplicationContext::close);
+            BenchmarkSupport.stopRedis(redisServer);
+        }
+    }
+
+    private void run() throws Exception {
+        for (int i = 0; i < settings.nodes; i++) {
+            nodes.add(BenchmarkSupport.startContext(settings.backend, BenchmarkSupport.redisAddress(REDIS_PORT), new Class<?>[0]));
+        }
+        System.out.println(settings);
+        System.out.printf("%8s %12s %10s %10s %10s %9s %9s %8s %11s %7s%n", "threads", "decisions/s", "admitted", "allowed",
+                "over", "p50 us", "p99 us", "cmd/dec", "script/dec", "errors");
+        for (int threads : settings.threads) {
+            System.out.println(runStep(threads));
+        }
+    }
+
+    private StepResult runStep(int threads) throws Exception {
+        SimulationKeys keys = new SimulationKeys("sim-" + System.currentTimeMillis() + "-" + threads + "-", settings.keys,
+                settings.keyDistribution, settings.zipfExponent);
+        RateLimiterDto[] rateLimiterDtos = new RateLimiterDto[keys.size()];
+        KeyStats[] keyStats = new KeyStats[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            rateLimiterDtos[i] = settings.rateLimiterDto(keys.key(i));
+            keyStats[i] = new KeyStats();
+        }
+
+        long[] commandsBefore = redisCommands();
+        ExecutorService clients = Executors.newFixedThreadPool(settings.nodes * threads);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<ClientStats>> clientStats = new ArrayList<>();
+        for (ConfigurableApplicationContext node : nodes) {
+            RateLimiterService rateLimiterService = node.getBean(RateLimiterService.class);
+            for (int i = 0; i < threads; i++) {
+                clientStats.add(clients.submit(() -> runClient(rateLimiterService, keys, rateLimiterDtos, keyStats, startLatch)));
+            }
+        }
+        startLatch.countDown();
+
+        StepResult stepResult = new StepResult(threads);
+        for (Future<ClientStats> future : clientStats) {
+            stepResult.add(future.get());
+        }
+        clients.shutdown();
+        long[] commandsAfter = redisCommands();
+
+        long unitNanos = settings.timeUnit.getDuration().toNanos();
+        for (KeyStats stats : keyStats) {
+            stepResult.addKey(stats, settings.limit, unitNanos);
+        }
+        if (commandsBefore != null) {
+            stepResult.redisCommands = commandsAfter[0] - commandsBefore[0];
+            stepResult.redisScripts = commandsAfter[1] - commandsBefore[1];
+        }
+        return stepResult;
+    }
+
+    private ClientStats runClient(RateLimiterService rateLimiterService, SimulationKeys keys, RateLimiterDto[] rateLimiterDtos,
+                                  KeyStats[] keyStats, CountDownLatch startLatch) throws InterruptedException {
+        ClientStats clientStats = new ClientStats();
+        startLatch.await();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(settings.durationSeconds);
+        long startNanos;
+        while ((startNanos = System.nanoTime()) < deadline) {
+            int index = keys.nextIndex();
+            try {
+                ConsumptionProbe consumptionProbe = rateLimiterService.tryConsume(rateLimiterDtos[index], 1);
+                long endNanos = System.nanoTime();
+                clientStats.latencies.recordValue(endNanos - startNanos);
+                clientStats.decisions++;
+                keyStats[index].attempts.increment();
+                if (consumptionProbe.isConsumed()) {
+                    clientStats.admitted++;
+                    keyStats[index].recordAdmission(startNanos, endNanos);
+                }
+            } catch (RuntimeException ex) {
+                clientStats.errors++;
+            }
+        }
+        return clientStats;
+    }
+
+    /**
+     * @return commands run by Redis so far, excluding the connection commands, followed by the
+     * scripts among them, null without Redis
+     */
+    private long[] redisCommands() {
+        if (!settings.backend.startsWith("redis")) {
+            return null;
+        }
+        CommandSyncService commandExecutor = nodes.get(0).getBean("rateLimiterCommandExecutor", CommandSyncService.class);
+        RFuture<Collection<Map<String, String>>> commandStats = commandExecutor.readAllAsync(RedisCommands.INFO_COMMANDSTATS);
+        long[] commands = new long[2];
+        for (Map<String, String> masterCommandStats : commandExecutor.get(commandStats)) {
+            for (Map.Entry<String, String> commandStat : masterCommandStats.entrySet()) {
+                if (!CONNECTION_COMMANDS.contains(commandStat.getKey())) {
+                    commands[0] += calls(commandStat.getValue());
+                }
+                if (SCRIPT_COMMANDS.contains(commandStat.getKey())) {
+                    commands[1] += calls(commandStat.getValue());
+                }
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * @param commandStat value of a cmdstat_ entry, e.g. calls=10,usec=20,usec_per_call=2.00
+     * @return number of calls of the command
+     */
+    private static long calls(String commandStat) {
+        for (String field : commandStat.split(",")) {
+            if (field.startsWith("calls=")) {
+                return Long.parseLong(field.substring("calls=".length()));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Settings of the simulation, read from the system properties.
+     */
+    private static final class Settings {
+
+        private final String backend = System.getProperty("simulation.backend", "redis-lua");
+        private final int nodes = Integer.getInteger("simulation.nodes", 4);
+        private final int[] threads = Arrays.stream(System.getProperty("simulation.threads", "1,8,32").split(","))
+                .map(String::trim).mapToInt(Integer::parseInt).toArray();
+        private final int durationSeconds = Integer.getInteger("simulation.durationSeconds", 10);
+        private final int keys = Integer.getInteger("simulation.keys", 1000);
+        private final SimulationKeys.Distribution keyDistribution = SimulationKeys.Distribution.valueOf(
+                System.getProperty("simulation.keyDistribution", "ZIPF"));
+        private final double zipfExponent = Double.parseDouble(System.getProperty("simulation.zipfExponent", "1.1"));
+        private final int limit = Integer.getInteger("simulation.limit", 100);
+        private final ChronoUnit timeUnit = ChronoUnit.valueOf(System.getProperty("simulation.timeUnit", "SECONDS"));
+        private final RateLimitAlgorithm algorithm = RateLimitAlgorithm.valueOf(
+                System.getProperty("simulation.algorithm", RateLimitAlgorithm.TOKEN_BUCKET.name()));
+        private final int leaseSize = Integer.getInteger("simulation.leaseSize", 0);
+        private final int shards = Integer.getInteger("simulation.shards", 0);
+
+        RateLimiterDto rateLimiterDto(String key) {
+            return RateLimiterDto.builder()
+                    .key(key)
+                    .active(true)
+                    .maxLimit(limit)
+                    .timeUnit(timeUnit)
+                    .algorithm(algorithm)
+                    .leaseSize(leaseSize)
+                    .shards(shards)
+                    .build();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("backend=%s nodes=%d duration=%ds keys=%d %s%s limit=%d/%s algorithm=%s leaseSize=%d shards=%d",
+                    backend, nodes, durationSeconds, keys, keyDistribution,
+                    keyDistribution == SimulationKeys.Distribution.ZIPF ? "(" + zipfExponent + ")" : "", limit, timeUnit,
+                    algorithm, leaseSize, shards);
+        }
+    }
+
+    /**
+     * Calls and admissions of a key over all the nodes. Admissions are bounded by the limit, so
+     * their timestamps are updated far less often than the calls are counted.
+     */
+    private static final class KeyStats {
+
+        private final LongAdder attempts = new LongAdder();
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong firstAdmissionNanos = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong lastAdmissionNanos = new AtomicLong(Long.MIN_VALUE);
+
+        void recordAdmission(long startNanos, long endNanos) {
+            admitted.incrementAndGet();
+            if (startNanos < firstAdmissionNanos.get()) {
+                firstAdmissionNanos.accumulateAndGet(startNanos, Math::min);
+            }
+            lastAdmissionNanos.accumulateAndGet(endNanos, Math::max);
+        }
+
+        /**
+         * @return calls an exact token bucket may admit between the first and last admission
+         */
+        long allowedByLimit(int limit, long unitNanos) {
+            if (admitted.get() == 0) {
+                return 0;
+            }
+            long windowNanos = lastAdmissionNanos.get() - firstAdmissionNanos.get();
+            return limit + (long) ((double) limit * windowNanos / unitNanos);
+        }
+    }
+
+    /**
+     * Counters of a single client thread, merged once the step is over.
+     */
+    private static final class ClientStats {
+
+        private final Histogram latencies = new Histogram(3);
+        private long decisions;
+        private long admitted;
+        private long errors;
+    }
+
+    private final class StepResult {
+
+        private final int threads;
+        private final Histogram latencies = new Histogram(3);
+        private long decisions;
+        private long admitted;
+        private long errors;
+        private long allowed;
+        private long overAdmitted;
+        private long redisCommands = -1;
+        private long redisScripts = -1;
+
+        StepResult(int threads) {
+            this.threads = threads;
+        }
+
+        void add(ClientStats clientStats) {
+            latencies.add(clientStats.latencies);
+            decisions += clientStats.decisions;
+            admitted += clientStats.admitted;
+            errors += clientStats.errors;
+        }
+
+        void addKey(KeyStats keyStats, int limit, long unitNanos) {
+            long allowedByLimit = keyStats.allowedByLimit(limit, unitNanos);
+            allowed += Math.min(keyStats.attempts.sum(), allowedByLimit);
+            overAdmitted += Math.max(0, keyStats.admitted.get() - allowedByLimit);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%8d %12.0f %10d %10d %10d %9.1f %9.1f %8s %11s %7d", threads,
+                    decisions / (double) settings.durationSeconds, admitted, allowed, overAdmitted,
+                    latencies.getValueAtPercentile(50) / 1000.0, latencies.getValueAtPercentile(99) / 1000.0,
+                    perDecision(redisCommands), perDecision(redisScripts), errors);
+        }
+
+        private String perDecision(long count) {
+            return count < 0 || decisions == 0 ? "-" : String.format("%.2f", count / (double) decisions);
+        }
+    }
+}
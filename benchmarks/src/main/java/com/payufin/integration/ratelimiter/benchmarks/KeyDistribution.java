@@ -0,0 +1,21 @@
+package com.payufin.integration.ratelimiter.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keys used by a benchmark: HOT always uses the same key, COLD picks a random key of the whole
+ * key space so that caches keep missing.
+ */
+
+public enum KeyDistribution {
+    HOT,
+    COLD;
+
+    public int nextIndex() {
+        return this == HOT ? 0 : ThreadLocalRandom.current().nextInt(BenchmarkSupport.KEY_SPACE);
+    }
+
+    public String nextKey() {
+        return this == HOT ? BenchmarkSupport.HOT_KEY : BenchmarkSupport.keys()[nextIndex()];
+    }
+}
@@ -0,0 +1,40 @@
+package com.payufin.integration.ratelimiter.benchmarks;
+
+import com.payufin.integration.ratelimiter.annotations.RateLimit;
+import com.payufin.integration.ratelimiter.models.RateLimitKeyProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Annotated functions called by the benchmarks.
+ */
+
+@Component
+public class LimitedTarget {
+
+    @RateLimit(keyObjectName = "key", providerBeanName = BenchmarkSupport.PROVIDER_BEAN_NAME)
+    public String byStringKey(String key) {
+        return key;
+    }
+
+    @RateLimit(keyObjectName = "request", providerBeanName = BenchmarkSupport.PROVIDER_BEAN_NAME)
+    public KeyedRequest byKeyProvider(KeyedRequest request) {
+        return request;
+    }
+
+    public static class KeyedRequest implements RateLimitKeyProvider {
+
+        private final List<String> rateLimitKeys;
+
+        public KeyedRequest(String key) {
+            this.rateLimitKeys = Collections.singletonList(key);
+        }
+
+        @Override
+        public List<String> getRateLimitKeys() {
+            return rateLimitKeys;
+        }
+    }
+}
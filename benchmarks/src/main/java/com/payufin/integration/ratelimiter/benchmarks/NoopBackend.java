@@ -0,0 +1,59 @@
+package com.payufin.integration.ratelimiter.benchmarks;
+
+import com.payufin.integration.ratelimiter.backends.RateLimitBackend;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.ConsumptionProbe;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Backend which allows every call without doing any work, used to measure the overhead of the
+ * aspect on its own.
+ */
+
+@Component
+public class NoopBackend implements RateLimitBackend {
+
+    private static final ConsumptionProbe CONSUMED = ConsumptionProbe.consumed(Long.MAX_VALUE, 0);
+    private static final CompletableFuture<ConsumptionProbe> CONSUMED_FUTURE = CompletableFuture.completedFuture(CONSUMED);
+
+    @Override
+    public Bucket resolveBucket(RateLimiterDto rateLimiterDto) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ConsumptionProbe tryConsume(RateLimiterDto rateLimiterDto, long tokens) {
+        return CONSUMED;
+    }
+
+    @Override
+    public CompletableFuture<ConsumptionProbe> tryConsumeAsync(RateLimiterDto rateLimiterDto, long tokens) {
+        return CONSUMED_FUTURE;
+    }
+
+    @Override
+    public ConsumptionProbe[] tryConsumeAll(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        ConsumptionProbe[] consumptionProbes = new ConsumptionProbe[rateLimiterDtos.size()];
+        for (int i = 0; i < consumptionProbes.length; i++) {
+            consumptionProbes[i] = CONSUMED;
+        }
+        return consumptionProbes;
+    }
+
+    @Override
+    public CompletableFuture<ConsumptionProbe[]> tryConsumeAllAsync(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        return CompletableFuture.completedFuture(tryConsumeAll(rateLimiterDtos, tokens));
+    }
+
+    @Override
+    public void evict(String key) {
+    }
+
+    @Override
+    public void warmUp(List<RateLimiterDto> rateLimiterDtos) {
+    }
+}
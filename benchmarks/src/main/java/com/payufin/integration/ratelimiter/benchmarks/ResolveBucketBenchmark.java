@@ -0,0 +1,87 @@
+package com.payufin.integration.ratelimiter.benchmarks;
+
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import com.payufin.integration.ratelimiter.services.RateLimiterService;
+import io.github.bucket4j.Bucket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link RateLimiterService#resolveBucket(RateLimiterDto)}. Resolving a cached bucket does
+ * not talk to Redis. The first resolution of a key on a node also reads the configuration stored
+ * with the bucket, which each of the COLD keys pays the first time it is resolved.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResolveBucketBenchmark {
+
+    private static final int REDIS_PORT = 6391;
+
+    @Param({"redis", "in-memory"})
+    public String backend;
+
+    @Param({"HOT", "COLD"})
+    public KeyDistribution keyDistribution;
+
+    private RedisServer redisServer;
+    private ConfigurableApplicationContext context;
+    private RateLimiterService rateLimiterService;
+    private RateLimiterDto hotRateLimiterDto;
+    private RateLimiterDto[] coldRateLimiterDtos;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        redisServer = BenchmarkSupport.startRedis(REDIS_PORT);
+        context = BenchmarkSupport.startContext(backend, BenchmarkSupport.redisAddress(REDIS_PORT), new Class<?>[0]);
+        rateLimiterService = context.getBean(RateLimiterService.class);
+        hotRateLimiterDto = StubRateLimitConfigProvider.rateLimiterDto(BenchmarkSupport.HOT_KEY);
+        coldRateLimiterDtos = new RateLimiterDto[BenchmarkSupport.KEY_SPACE];
+        for (int i = 0; i < coldRateLimiterDtos.length; i++) {
+            coldRateLimiterDtos[i] = StubRateLimitConfigProvider.rateLimiterDto(BenchmarkSupport.keys()[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        BenchmarkSupport.stopRedis(redisServer);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Bucket resolveBucket() {
+        return rateLimiterService.resolveBucket(nextRateLimiterDto());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Bucket resolveBucketContended() {
+        return rateLimiterService.resolveBucket(nextRateLimiterDto());
+    }
+
+    private RateLimiterDto nextRateLimiterDto() {
+        return keyDistribution == KeyDistribution.HOT ? hotRateLimiterDto : coldRateLimiterDtos[keyDistribution.nextIndex()];
+    }
+}
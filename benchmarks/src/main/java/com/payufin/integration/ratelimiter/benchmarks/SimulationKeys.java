@@ -0,0 +1,68 @@
+package com.payufin.integration.ratelimiter.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Key space of a simulation step. UNIFORM picks every key with the same probability, ZIPF picks
+ * the key of rank i with a probability proportional to 1 / i^exponent, so that a few hot keys
+ * take most of the calls, the way partners or merchants do in production.
+ */
+
+public final class SimulationKeys {
+
+    public enum Distribution {
+        UNIFORM,
+        ZIPF
+    }
+
+    private final String[] keys;
+
+    /**
+     * Cumulative probability of the keys in rank order, null for UNIFORM.
+     */
+    private final double[] cumulativeProbabilities;
+
+    /**
+     * @param prefix       prefix of the keys, unique per step so that no bucket is reused
+     * @param size         number of keys
+     * @param distribution distribution of the calls over the keys
+     * @param zipfExponent exponent of the ZIPF distribution, larger is more skewed
+     */
+    public SimulationKeys(String prefix, int size, Distribution distribution, double zipfExponent) {
+        this.keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = prefix + i;
+        }
+        if (distribution == Distribution.ZIPF) {
+            cumulativeProbabilities = new double[size];
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += 1 / Math.pow(i + 1, zipfExponent);
+                cumulativeProbabilities[i] = sum;
+            }
+            for (int i = 0; i < size; i++) {
+                cumulativeProbabilities[i] /= sum;
+            }
+        } else {
+            cumulativeProbabilities = null;
+        }
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public String key(int index) {
+        return keys[index];
+    }
+
+    public int nextIndex() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (cumulativeProbabilities == null) {
+            return random.nextInt(keys.length);
+        }
+        int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, keys.length - 1);
+    }
+}
@@ -0,0 +1,68 @@
+package com.payufin.integration.ratelimiter.benchmarks;
+
+import com.payufin.integration.ratelimiter.configs.RateLimitConfigProvider;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import org.springframework.stereotype.Component;
+
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Provider which answers every key from memory with a limit that is never reached, so that the
+ * benchmarks measure the cost of a check and not the cost of a rejection.
+ */
+
+@Component(BenchmarkSupport.PROVIDER_BEAN_NAME)
+public class StubRateLimitConfigProvider extends RateLimitConfigProvider<RateLimiterDto> {
+
+    public static RateLimiterDto rateLimiterDto(String key) {
+        return RateLimiterDto.builder()
+                .key(key)
+                .active(true)
+                .maxLimit(Integer.MAX_VALUE)
+                .timeUnit(ChronoUnit.MINUTES)
+                .build();
+    }
+
+    @Override
+    public RateLimiterDto getRateLimiterEntityFromCache(String key) {
+        return null;
+    }
+
+    @Override
+    public void saveRateLimiterEntityToCache(String key, RateLimiterDto rateLimitEntity) {
+    }
+
+    @Override
+    public void deleteRateLimiterEntityFromCache(String key) {
+    }
+
+    @Override
+    public RateLimiterDto getRateLimiterEntityFromSource(String key) {
+        return rateLimiterDto(key);
+    }
+
+    @Override
+    public RateLimiterDto insertRateLimiterEntityToSource(RateLimiterDto rateLimitEntity) {
+        return rateLimitEntity;
+    }
+
+    @Override
+    public RateLimiterDto updateRateLimiterEntityToSource(RateLimiterDto rateLimitEntity) {
+        return rateLimitEntity;
+    }
+
+    @Override
+    public String deleteRateLimiterEntityFromSource(String key) {
+        return "1";
+    }
+
+    @Override
+    public RateLimiterDto transformRateLimiterEntityToRateLimiterDto(RateLimiterDto rateLimiterEntity) {
+        return rateLimiterEntity;
+    }
+
+    @Override
+    public RateLimiterDto transformRateLimiterDtoToRateLimiterEntity(RateLimiterDto rateLimiterDto) {
+        return rateLimiterDto;
+    }
+}
@@ -1,5 +1,7 @@
 package com.payufin.integration.ratelimiter.annotations;
 
+import com.payufin.integration.ratelimiter.models.RateLimitMode;
+
 import java.lang.annotation.Repeatable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -19,10 +21,58 @@ public @interface RateLimit {
 
     String keyObjectName() default "";
 
+    /**
+     * SpEL expression building the Rate Limit key from the arguments, referenced by name or as
+     * #p0, e.g. {@code #partnerId + ':' + #endpoint}. It is parsed once and compiled, and takes
+     * precedence over keyObjectName. It may also return a RateLimitKeyProvider.
+     */
+    String keyExpression() default "";
+
+    /**
+     * Prefix added to every Rate Limit key of this annotation, both for the lookup of its
+     * Rate Limiter Object and for its bucket, e.g. "search:".
+     */
+    String keyPrefix() default "";
+
     String defaultKey() default "";
 
-    String providerBeanName();
+    /**
+     * Bean name of the configuration provider of the keys, required in RATE mode.
+     */
+    String providerBeanName() default "";
 
     int priority() default Integer.MAX_VALUE;
 
+    /**
+     * Name of the argument whose value picks the shard of a sharded key, so that a caller stays
+     * on the same shard. Shards are picked round-robin when not given.
+     */
+    String shardKeyObjectName() default "";
+
+    /**
+     * Number of tokens a call takes from the limit.
+     */
+    long cost() default 1;
+
+    /**
+     * Name of the argument giving the number of tokens a call takes from the limit: the size of
+     * a collection, map or array, or the value of a number. Falls back to cost() when not given
+     * or null, and a call always takes at least one token.
+     */
+    String costObjectName() default "";
+
+    /**
+     * Maximum time in millis a call waits for the tokens to refill instead of being rejected.
+     * A call waits only when every RateLimit annotation of the method allows it, up to the
+     * smallest of their maxWaitMillis. 0 rejects right away.
+     */
+    long maxWaitMillis() default 0;
+
+    /**
+     * RATE limits the calls of every key by its Rate Limiter Object. CONCURRENCY limits the calls
+     * of the method in flight on this node, with a limit adjusted to the latency of the method,
+     * and ignores the key, provider, cost and wait attributes.
+     */
+    RateLimitMode mode() default RateLimitMode.RATE;
+
 }
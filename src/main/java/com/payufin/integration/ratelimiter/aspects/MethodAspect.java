@@ -1,36 +1,40 @@
 package com.payufin.integration.ratelimiter.aspects;
 
-import com.payufin.integration.ratelimiter.annotations.RateLimit;
+import com.payufin.integration.ratelimiter.backends.RateLimitBackend;
+import com.payufin.integration.ratelimiter.configs.RateLimitConcurrencyProperties;
 import com.payufin.integration.ratelimiter.configs.RateLimitConfigProvider;
 import com.payufin.integration.ratelimiter.exceptions.RateLimitException;
-import com.payufin.integration.ratelimiter.models.RateLimitKeyProvider;
+import com.payufin.integration.ratelimiter.exceptions.RateLimitExceededException;
+import com.payufin.integration.ratelimiter.jfr.RateLimitEvents;
+import com.payufin.integration.ratelimiter.metrics.LimitMeters;
+import com.payufin.integration.ratelimiter.metrics.RateLimiterMetrics;
 import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import com.payufin.integration.ratelimiter.services.AdaptiveConcurrencyLimiter;
 import com.payufin.integration.ratelimiter.services.RateLimiterService;
-import io.github.bucket4j.Bucket;
 import io.github.bucket4j.ConsumptionProbe;
 import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
-import org.aspectj.lang.reflect.CodeSignature;
 import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpStatus;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
-import org.springframework.util.StringUtils;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-
-import static com.payufin.integration.ratelimiter.utils.constants.EMPTY_STRING;
-import static com.payufin.integration.ratelimiter.utils.constants.RATE_LIMIT_EXCEEDED;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Author - lakshya.jain <br>
@@ -44,7 +48,7 @@ import static com.payufin.integration.ratelimiter.utils.constants.RATE_LIMIT_EXC
 @Slf4j
 @Aspect
 @Component
-public class MethodAspect {
+public class MethodAspect implements DisposableBean {
 
     @Autowired
     private RateLimiterService rateLimiter;
@@ -52,6 +56,31 @@ public class MethodAspect {
     @Autowired
     BeanFactory beanFactory;
 
+    @Autowired
+    private RateLimiterMetrics rateLimiterMetrics;
+
+    @Autowired
+    private RateLimitConcurrencyProperties rateLimitConcurrencyProperties;
+
+    /**
+     * Executor running the functions returning a {@link CompletableFuture} once their limits are
+     * consumed. Without it they run on the thread completing the check.
+     */
+    @Autowired(required = false)
+    @Qualifier("rateLimiterAsyncExecutor")
+    private Executor asyncExecutor;
+
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    /**
+     * Shortest wait between two tries of a waiting call, so that a call is never retried in a loop.
+     */
+    private static final long MIN_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ScheduledThreadPoolExecutor waitScheduler = newWaitScheduler();
+
+    private final ConcurrentMap<Method, RateLimitPlan> rateLimitPlans = new ConcurrentHashMap<>();
+
     /**
      * MultiRateLimiter is called when you use multiple RateLimiting annotation
      * over a function.
@@ -62,19 +91,7 @@ public class MethodAspect {
      */
     @Around("@annotation(com.payufin.integration.ratelimiter.annotations.MultiRateLimit)")
     public Object MultiRateLimiter(ProceedingJoinPoint joinPoint) throws Throwable {
-        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
-        List<Object> arguments = Arrays.stream(joinPoint.getArgs()).collect(Collectors.toList());
-        List<RateLimit> rateLimitAnnotations = Arrays.asList(method.getAnnotationsByType(RateLimit.class));
-
-        rateLimitAnnotations = rateLimitAnnotations.stream()
-                .sorted(Comparator.comparing(RateLimit::priority).thenComparing(RateLimit::keyObjectName))
-                .collect(Collectors.toList());
-
-        for (RateLimit rateLimitAnnotation : rateLimitAnnotations) {
-            checkRateLimit(joinPoint, arguments, rateLimitAnnotation);
-        }
-
-        return returnToFunction(joinPoint);
+        return limitAndReturnToFunction(joinPoint);
     }
 
     /**
@@ -87,72 +104,353 @@ public class MethodAspect {
      */
     @Around("@annotation(com.payufin.integration.ratelimiter.annotations.RateLimit)")
     public Object RateLimiter(ProceedingJoinPoint joinPoint) throws Throwable {
-        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
-        List<Object> arguments = Arrays.stream(joinPoint.getArgs()).collect(Collectors.toList());
-        RateLimit rateLimitAnnotation = method.getAnnotation(RateLimit.class);
-        checkRateLimit(joinPoint, arguments, rateLimitAnnotation);
-        return returnToFunction(joinPoint);
+        return limitAndReturnToFunction(joinPoint);
     }
 
     /**
-     * This is generic function to check the Rate Limit w.r.t the given RateLimit Annotation.
+     * Checks all the limits of the intercepted method and returns to it. Functions returning a
+     * {@link CompletableFuture}, Mono or Flux are limited without blocking: the function is
+     * chained onto the result of the bucket consumption and a rejection is signalled through
+     * the returned value. A function returning a {@link CompletableFuture} is called on the thread
+     * completing the check, which is the calling thread when no Redis round trip was needed and
+     * otherwise the Redisson event loop or the wait scheduler, unless a rateLimiterAsyncExecutor
+     * bean is defined. A function in CONCURRENCY mode takes a slot of its concurrency limiter
+     * before its rate limits are consumed, so that a call rejected for concurrency takes no
+     * token, and gives it back when it completes or when its rate limits reject it. The latency
+     * fed to the limiter is measured from the call of the function.
      *
-     * @param joinPoint           joinPoint exposes the proceed(..) method in order to support around advice
-     * @param arguments           List of arguments given in the function
-     * @param rateLimitAnnotation RateLimit Annotation present over a function
+     * @param joinPoint joinPoint exposes the proceed(..) method in order to support around advice
+     * @return returns to the Annotated function
+     * @throws Throwable throws exception when rate limit exceeded
      */
-    private void checkRateLimit(ProceedingJoinPoint joinPoint, List<Object> arguments, RateLimit rateLimitAnnotation) {
+    private Object limitAndReturnToFunction(ProceedingJoinPoint joinPoint) throws Throwable {
+        RateLimitPlan rateLimitPlan = getRateLimitPlan(joinPoint);
+        Object[] arguments = joinPoint.getArgs();
 
-        String keyObjectName = rateLimitAnnotation.keyObjectName();
-        String defaultKey = rateLimitAnnotation.defaultKey();
-        String beanName = rateLimitAnnotation.providerBeanName();
+        switch (rateLimitPlan.getInvocationType()) {
+            case COMPLETABLE_FUTURE:
+                return limitAsyncFunction(joinPoint, arguments, rateLimitPlan);
+            case MONO:
+                return ReactiveRateLimitSupport.mono(() -> checkRateLimitAsync(arguments, rateLimitPlan), joinPoint,
+                        rateLimitPlan.getConcurrencyLimiter());
+            case FLUX:
+                return ReactiveRateLimitSupport.flux(() -> checkRateLimitAsync(arguments, rateLimitPlan), joinPoint,
+                        rateLimitPlan.getConcurrencyLimiter());
+            default:
+                AdaptiveConcurrencyLimiter concurrencyLimiter = rateLimitPlan.getConcurrencyLimiter();
+                if (concurrencyLimiter == null) {
+                    checkRateLimit(arguments, rateLimitPlan);
+                    return returnToFunction(joinPoint);
+                }
+                concurrencyLimiter.acquire();
+                boolean admitted = false;
+                try {
+                    checkRateLimit(arguments, rateLimitPlan);
+                    admitted = true;
+                } finally {
+                    if (!admitted) {
+                        concurrencyLimiter.releaseIgnored();
+                    }
+                }
+                long startNanos = System.nanoTime();
+                try {
+                    return returnToFunction(joinPoint);
+                } finally {
+                    concurrencyLimiter.release(startNanos);
+                }
+        }
+    }
 
-        RateLimitConfigProvider rateLimitConfigProvider = beanFactory.getBean(beanName, RateLimitConfigProvider.class);
+    private CompletableFuture<Object> limitAsyncFunction(ProceedingJoinPoint joinPoint, Object[] arguments, RateLimitPlan rateLimitPlan) {
+        AdaptiveConcurrencyLimiter concurrencyLimiter = rateLimitPlan.getConcurrencyLimiter();
+        Executor functionExecutor = asyncExecutor;
+        if (concurrencyLimiter != null) {
+            try {
+                concurrencyLimiter.acquire();
+            } catch (RuntimeException ex) {
+                CompletableFuture<Object> rejectedFunction = new CompletableFuture<>();
+                rejectedFunction.completeExceptionally(ex);
+                return rejectedFunction;
+            }
+            if (asyncExecutor != null) {
+                // A function the executor does not take never gives its slot back otherwise.
+                functionExecutor = runnable -> {
+                    try {
+                        asyncExecutor.execute(runnable);
+                    } catch (RuntimeException ex) {
+                        concurrencyLimiter.releaseIgnored();
+                        throw ex;
+                    }
+                };
+            }
+        }
+        CompletableFuture<Void> rateLimitCheck = checkRateLimitAsync(arguments, rateLimitPlan);
+        if (concurrencyLimiter != null) {
+            rateLimitCheck.whenComplete((ignored, ex) -> {
+                if (ex != null) {
+                    concurrencyLimiter.releaseIgnored();
+                }
+            });
+        }
+        return rateLimitCheck.isDone() || functionExecutor == null
+                ? rateLimitCheck.thenCompose(ignored -> returnToAsyncFunction(joinPoint, concurrencyLimiter))
+                : rateLimitCheck.thenComposeAsync(ignored -> returnToAsyncFunction(joinPoint, concurrencyLimiter), functionExecutor);
+    }
 
-        List<String> rateLimitKeys = StringUtils.hasLength(defaultKey) ? Collections.singletonList(defaultKey) : getRateLimitKeys(joinPoint, arguments, keyObjectName);
+    /**
+     * Returns the plan of the intercepted method, resolving it on the first call.
+     *
+     * @param joinPoint joinPoint exposes the proceed(..) method in order to support around advice
+     * @return Rate Limit plan of the intercepted method
+     */
+    private RateLimitPlan getRateLimitPlan(ProceedingJoinPoint joinPoint) {
+        MethodSignature methodSignature = (MethodSignature) joinPoint.getSignature();
+        Method method = methodSignature.getMethod();
+        RateLimitPlan rateLimitPlan = rateLimitPlans.get(method);
+        if (rateLimitPlan == null) {
+            rateLimitPlan = rateLimitPlans.computeIfAbsent(method,
+                    m -> RateLimitPlan.of(m, methodSignature.getParameterNames(), beanFactory, rateLimiterMetrics,
+                            rateLimitConcurrencyProperties));
+        }
+        return rateLimitPlan;
+    }
 
-        for (String rateLimitKey : rateLimitKeys) {
-            boolean isRateLimitReached = false;
-            RateLimiterDto rateLimiterDto = rateLimitConfigProvider.getRateLimiterDto(rateLimitKey);
+    /**
+     * This is generic function to check the Rate Limit w.r.t the RateLimit Annotations of a function.
+     * When more than one key is limited, all of them are consumed together and no token is taken
+     * if any of them is exceeded. A function allowed to wait parks the calling thread until the
+     * tokens refill and tries again, as long as it stays within its maximum wait. The config
+     * lookups, the consumptions and the decisions are recorded as {@link RateLimitEvents} while a
+     * flight recording is running.
+     *
+     * @param arguments     arguments given in the function
+     * @param rateLimitPlan Rate Limit plan of the function
+     */
+    private void checkRateLimit(Object[] arguments, RateLimitPlan rateLimitPlan) {
+        ActiveLimits activeLimits = getActiveLimits(arguments, rateLimitPlan);
+        List<RateLimiterDto> rateLimiterDtos = activeLimits.rateLimiterDtos;
+        long startNanos = System.nanoTime();
 
-            if (rateLimiterDto == null) {
-                continue;
+        if (rateLimiterDtos.size() == 1) {
+            ConsumptionProbe consumptionProbe = consume(activeLimits, rateLimitPlan);
+            long waitNanos;
+            while (!consumptionProbe.isConsumed()
+                    && (waitNanos = waitNanos(rateLimitPlan, consumptionProbe.getNanosToWaitForRefill(), startNanos)) >= 0) {
+                LockSupport.parkNanos(this, waitNanos);
+                consumptionProbe = consume(activeLimits, rateLimitPlan);
+            }
+            throwIfRateLimitReached(activeLimits, consumptionProbe, 0);
+        } else if (rateLimiterDtos.size() > 1) {
+            ConsumptionProbe[] consumptionProbes = consumeAll(activeLimits, rateLimitPlan);
+            long waitNanos;
+            while (!RateLimitBackend.allConsumed(consumptionProbes)
+                    && (waitNanos = waitNanos(rateLimitPlan, nanosToWaitForRefill(consumptionProbes), startNanos)) >= 0) {
+                LockSupport.parkNanos(this, waitNanos);
+                consumptionProbes = consumeAll(activeLimits, rateLimitPlan);
             }
+            throwIfRateLimitReached(activeLimits, consumptionProbes);
+        }
+    }
 
-            if (rateLimiterDto.isActive()) {
-                Bucket bucket = rateLimiter.resolveBucket(rateLimiterDto);
-                ConsumptionProbe consumptionProbe = bucket.tryConsumeAndReturnRemaining(1);
-                log.debug("Consumption Probe - Remaining tokens : {}, Nanos to fill : {}", consumptionProbe.getRemainingTokens(),
-                        consumptionProbe.getNanosToWaitForRefill());
-                isRateLimitReached = !consumptionProbe.isConsumed();
+    private ConsumptionProbe consume(ActiveLimits activeLimits, RateLimitPlan rateLimitPlan) {
+        long consumeStartNanos = System.nanoTime();
+        Object consumeEvent = RateLimitEvents.beginConsume();
+        ConsumptionProbe consumptionProbe = rateLimiter.tryConsume(activeLimits.rateLimiterDtos.get(0), activeLimits.tokens[0],
+                activeLimits.getShardKey(0));
+        rateLimitPlan.getMethodMeters().recordConsume(consumeStartNanos);
+        RateLimitEvents.commitConsume(consumeEvent, rateLimitPlan.getMethodName(), 1, consumptionProbe.isConsumed());
+        return consumptionProbe;
+    }
+
+    private ConsumptionProbe[] consumeAll(ActiveLimits activeLimits, RateLimitPlan rateLimitPlan) {
+        long consumeStartNanos = System.nanoTime();
+        Object consumeEvent = RateLimitEvents.beginConsume();
+        ConsumptionProbe[] consumptionProbes = rateLimiter.tryConsumeAll(activeLimits.rateLimiterDtos, activeLimits.getTokens(),
+                activeLimits.shardKeys);
+        rateLimitPlan.getMethodMeters().recordConsume(consumeStartNanos);
+        RateLimitEvents.commitConsume(consumeEvent, rateLimitPlan.getMethodName(), consumptionProbes.length,
+                RateLimitBackend.allConsumed(consumptionProbes));
+        return consumptionProbes;
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #checkRateLimit(Object[], RateLimitPlan)}. The returned
+     * future completes exceptionally with {@link RateLimitException} when a limit is exceeded. A
+     * function allowed to wait is tried again from the wait scheduler, so no thread is held while
+     * the tokens refill.
+     *
+     * @param arguments     arguments given in the function
+     * @param rateLimitPlan Rate Limit plan of the function
+     * @return future which completes once all the limits are consumed
+     */
+    private CompletableFuture<Void> checkRateLimitAsync(Object[] arguments, RateLimitPlan rateLimitPlan) {
+        try {
+            ActiveLimits activeLimits = getActiveLimits(arguments, rateLimitPlan);
+            if (activeLimits.rateLimiterDtos.isEmpty()) {
+                return COMPLETED;
             }
+            return consumeAsync(activeLimits, rateLimitPlan, System.nanoTime());
+        } catch (RuntimeException ex) {
+            CompletableFuture<Void> failedCheck = new CompletableFuture<>();
+            failedCheck.completeExceptionally(ex);
+            return failedCheck;
+        }
+    }
+
+    private CompletableFuture<Void> consumeAsync(ActiveLimits activeLimits, RateLimitPlan rateLimitPlan, long startNanos) {
+        List<RateLimiterDto> rateLimiterDtos = activeLimits.rateLimiterDtos;
+        long consumeStartNanos = System.nanoTime();
+        if (rateLimiterDtos.size() == 1) {
+            return rateLimiter.tryConsumeAsync(rateLimiterDtos.get(0), activeLimits.tokens[0], activeLimits.getShardKey(0))
+                    .thenCompose(consumptionProbe -> {
+                        rateLimitPlan.getMethodMeters().recordConsume(consumeStartNanos);
+                        long waitNanos = consumptionProbe.isConsumed()
+                                ? -1 : waitNanos(rateLimitPlan, consumptionProbe.getNanosToWaitForRefill(), startNanos);
+                        if (waitNanos >= 0) {
+                            return delay(waitNanos).thenCompose(ignored -> consumeAsync(activeLimits, rateLimitPlan, startNanos));
+                        }
+                        throwIfRateLimitReached(activeLimits, consumptionProbe, 0);
+                        return COMPLETED;
+                    });
+        }
+        return rateLimiter.tryConsumeAllAsync(rateLimiterDtos, activeLimits.getTokens(), activeLimits.shardKeys)
+                .thenCompose(consumptionProbes -> {
+                    rateLimitPlan.getMethodMeters().recordConsume(consumeStartNanos);
+                    long waitNanos = RateLimitBackend.allConsumed(consumptionProbes)
+                            ? -1 : waitNanos(rateLimitPlan, nanosToWaitForRefill(consumptionProbes), startNanos);
+                    if (waitNanos >= 0) {
+                        return delay(waitNanos).thenCompose(ignored -> consumeAsync(activeLimits, rateLimitPlan, startNanos));
+                    }
+                    throwIfRateLimitReached(activeLimits, consumptionProbes);
+                    return COMPLETED;
+                });
+    }
 
-            if (isRateLimitReached) {
-                throw new RateLimitException(HttpStatus.TOO_MANY_REQUESTS.value(),
-                        RATE_LIMIT_EXCEEDED + ", " + String.format("Rate for %s is limited to %s requests per %s",
-                                rateLimiterDto.getKey(), rateLimiterDto.getMaxLimit(), rateLimiterDto.getTimeUnit().toString()));
+    /**
+     * @param rateLimitPlan        Rate Limit plan of the function
+     * @param nanosToWaitForRefill time until the rejected call could be admitted
+     * @param startNanos           time of the first try of the call
+     * @return nanos to wait before trying the call again, -1 when it has to be rejected
+     */
+    private static long waitNanos(RateLimitPlan rateLimitPlan, long nanosToWaitForRefill, long startNanos) {
+        if (rateLimitPlan.getMaxWaitNanos() <= 0 || nanosToWaitForRefill == Long.MAX_VALUE || Thread.currentThread().isInterrupted()) {
+            return -1;
+        }
+        long waitNanos = Math.max(nanosToWaitForRefill, MIN_WAIT_NANOS);
+        return System.nanoTime() - startNanos + waitNanos <= rateLimitPlan.getMaxWaitNanos() ? waitNanos : -1;
+    }
+
+    /**
+     * @return time until all the rejected keys could be admitted
+     */
+    private static long nanosToWaitForRefill(ConsumptionProbe[] consumptionProbes) {
+        long nanosToWaitForRefill = 0;
+        for (ConsumptionProbe consumptionProbe : consumptionProbes) {
+            if (!consumptionProbe.isConsumed()) {
+                nanosToWaitForRefill = Math.max(nanosToWaitForRefill, consumptionProbe.getNanosToWaitForRefill());
             }
         }
+        return nanosToWaitForRefill;
+    }
+
+    private CompletableFuture<Void> delay(long nanos) {
+        CompletableFuture<Void> delay = new CompletableFuture<>();
+        waitScheduler.schedule(() -> delay.complete(null), nanos, TimeUnit.NANOSECONDS);
+        return delay;
     }
 
     /**
-     * @param joinPoint     joinPoint exposes the proceed(..) method in order to support around advice
-     * @param arguments     List of arguments given in the function
-     * @param keyObjectName Name of object present in the arguments of function from which
-     *                      Rate Limiter can get the Rate Limit Key
-     * @return return Rate Limit Key
+     * Resolves the active Rate Limiter Objects of all the keys of a call, in the order of
+     * priority of the RateLimit Annotations.
+     *
+     * @param arguments     arguments given in the function
+     * @param rateLimitPlan Rate Limit plan of the function
+     * @return active Rate Limiter Objects along with the meters of their annotation
      */
-    private List<String> getRateLimitKeys(ProceedingJoinPoint joinPoint, List<Object> arguments, String keyObjectName) {
-        CodeSignature codeSignature = (CodeSignature) joinPoint.getSignature();
-        List<String> argumentNames = Arrays.stream(codeSignature.getParameterNames()).collect(Collectors.toList());
-        Map<String, Object> keyValueMap = IntStream.range(0, argumentNames.size()).boxed().collect(Collectors.toMap(argumentNames::get, arguments::get));
-        Object o = keyValueMap.get(keyObjectName);
-        if (o instanceof RateLimitKeyProvider) {
-            return ((RateLimitKeyProvider) o).getRateLimitKeys();
-        } else if (o instanceof String) {
-            return Collections.singletonList(o.toString());
+    private ActiveLimits getActiveLimits(Object[] arguments, RateLimitPlan rateLimitPlan) {
+        ActiveLimits activeLimits = new ActiveLimits(rateLimitPlan.getLimits().length, rateLimitPlan.isShardKeyed(),
+                rateLimitPlan.getMethodName());
+        for (RateLimitPlan.LimitPlan limitPlan : rateLimitPlan.getLimits()) {
+            RateLimitConfigProvider<?> rateLimitConfigProvider = limitPlan.getRateLimitConfigProvider();
+            LimitMeters limitMeters = limitPlan.getLimitMeters();
+            List<String> rateLimitKeys = limitPlan.getRateLimitKeys(arguments);
+            long cost = -1;
+
+            for (int i = 0; i < rateLimitKeys.size(); i++) {
+                long lookupStartNanos = System.nanoTime();
+                Object lookupEvent = RateLimitEvents.beginConfigLookup();
+                RateLimiterDto rateLimiterDto = rateLimitConfigProvider.getRateLimiterDto(rateLimitKeys.get(i));
+                limitMeters.recordConfigLookup(lookupStartNanos);
+                RateLimitEvents.commitConfigLookup(lookupEvent, rateLimitPlan.getMethodName(), rateLimitKeys.get(i), rateLimiterDto);
+                if (rateLimiterDto != null && rateLimiterDto.isActive()) {
+                    cost = cost < 0 ? limitPlan.getCost(arguments) : cost;
+                    activeLimits.add(rateLimiterDto, limitMeters, cost, limitPlan.getShardKey(arguments));
+                }
+            }
+        }
+        return activeLimits;
+    }
+
+    /**
+     * Keys consumed in a call rejected by another key got their tokens back, so only the
+     * rejecting keys are recorded for such a call.
+     */
+    private void throwIfRateLimitReached(ActiveLimits activeLimits, ConsumptionProbe[] consumptionProbes) {
+        int rejectedIndex = -1;
+        for (int i = 0; i < consumptionProbes.length; i++) {
+            if (!consumptionProbes[i].isConsumed()) {
+                rejectedIndex = rejectedIndex < 0 ? i : rejectedIndex;
+                activeLimits.limitMeters.get(i).recordDecision(activeLimits.rateLimiterDtos.get(i).getKey(), consumptionProbes[i]);
+                RateLimitEvents.decision(activeLimits.methodName, activeLimits.rateLimiterDtos.get(i).getKey(), consumptionProbes[i]);
+            }
+        }
+        if (rejectedIndex < 0) {
+            for (int i = 0; i < consumptionProbes.length; i++) {
+                throwIfRateLimitReached(activeLimits, consumptionProbes[i], i);
+            }
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Consumption Probe - Remaining tokens : {}, Nanos to fill : {}", consumptionProbes[rejectedIndex].getRemainingTokens(),
+                    consumptionProbes[rejectedIndex].getNanosToWaitForRefill());
+        }
+        throw new RateLimitExceededException(activeLimits.rateLimiterDtos.get(rejectedIndex), consumptionProbes[rejectedIndex]);
+    }
+
+    private void throwIfRateLimitReached(ActiveLimits activeLimits, ConsumptionProbe consumptionProbe, int index) {
+        RateLimiterDto rateLimiterDto = activeLimits.rateLimiterDtos.get(index);
+        if (log.isDebugEnabled()) {
+            log.debug("Consumption Probe - Remaining tokens : {}, Nanos to fill : {}", consumptionProbe.getRemainingTokens(),
+                    consumptionProbe.getNanosToWaitForRefill());
+        }
+        activeLimits.limitMeters.get(index).recordDecision(rateLimiterDto.getKey(), consumptionProbe);
+        RateLimitEvents.decision(activeLimits.methodName, rateLimiterDto.getKey(), consumptionProbe);
+        if (!consumptionProbe.isConsumed()) {
+            throw new RateLimitExceededException(rateLimiterDto, consumptionProbe);
+        }
+    }
+
+    /**
+     * @param concurrencyLimiter limiter whose slot the call already holds, null when the function is not in CONCURRENCY mode
+     */
+    private CompletionStage<Object> returnToAsyncFunction(ProceedingJoinPoint joinPoint, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        if (concurrencyLimiter == null) {
+            return returnToAsyncFunction(joinPoint);
+        }
+        long startNanos = System.nanoTime();
+        return returnToAsyncFunction(joinPoint).whenComplete((retValue, ex) -> concurrencyLimiter.release(startNanos));
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletionStage<Object> returnToAsyncFunction(ProceedingJoinPoint joinPoint) {
+        try {
+            CompletionStage<Object> retValue = (CompletionStage<Object>) joinPoint.proceed();
+            return retValue != null ? retValue : COMPLETED.thenApply(ignored -> null);
+        } catch (Throwable ex) {
+            CompletableFuture<Object> failedFunction = new CompletableFuture<>();
+            failedFunction.completeExceptionally(ex);
+            return failedFunction;
         }
-        return Collections.singletonList(EMPTY_STRING);
     }
 
     private Object returnToFunction(ProceedingJoinPoint joinPoint) throws Throwable {
@@ -164,4 +462,61 @@ public class MethodAspect {
         }
         return retValue;
     }
+
+    @Override
+    public void destroy() {
+        waitScheduler.shutdownNow();
+    }
+
+    private static ScheduledThreadPoolExecutor newWaitScheduler() {
+        ScheduledThreadPoolExecutor waitScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "rate-limiter-wait");
+            thread.setDaemon(true);
+            return thread;
+        });
+        waitScheduler.setRemoveOnCancelPolicy(true);
+        return waitScheduler;
+    }
+
+    /**
+     * Active Rate Limiter Objects of a call, the meters of the annotation each one came from, the
+     * tokens the call takes from each one and the values picking their shards.
+     */
+    private static final class ActiveLimits {
+
+        private final List<RateLimiterDto> rateLimiterDtos;
+        private final List<LimitMeters> limitMeters;
+        private final List<Object> shardKeys;
+        private final String methodName;
+        private long[] tokens;
+
+        ActiveLimits(int expectedSize, boolean shardKeyed, String methodName) {
+            this.rateLimiterDtos = new ArrayList<>(expectedSize);
+            this.limitMeters = new ArrayList<>(expectedSize);
+            this.shardKeys = shardKeyed ? new ArrayList<>(expectedSize) : null;
+            this.methodName = methodName;
+            this.tokens = new long[Math.max(expectedSize, 1)];
+        }
+
+        void add(RateLimiterDto rateLimiterDto, LimitMeters limitMeters, long cost, Object shardKey) {
+            int index = rateLimiterDtos.size();
+            if (index == tokens.length) {
+                tokens = Arrays.copyOf(tokens, index * 2);
+            }
+            tokens[index] = cost;
+            rateLimiterDtos.add(rateLimiterDto);
+            this.limitMeters.add(limitMeters);
+            if (shardKeys != null) {
+                shardKeys.add(shardKey);
+            }
+        }
+
+        long[] getTokens() {
+            return tokens.length == rateLimiterDtos.size() ? tokens : Arrays.copyOf(tokens, rateLimiterDtos.size());
+        }
+
+        Object getShardKey(int index) {
+            return shardKeys != null ? shardKeys.get(index) : null;
+        }
+    }
 }
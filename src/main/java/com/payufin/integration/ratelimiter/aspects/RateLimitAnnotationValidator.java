@@ -0,0 +1,43 @@
+package com.payufin.integration.ratelimiter.aspects;
+
+import com.payufin.integration.ratelimiter.annotations.MultiRateLimit;
+import com.payufin.integration.ratelimiter.annotations.RateLimit;
+import com.payufin.integration.ratelimiter.models.RateLimitMode;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Checks the RateLimit annotations of every bean when it is created, so that an annotation in
+ * RATE mode without providerBeanName, or naming a provider bean which does not exist, fails the
+ * startup with the method it is on instead of failing every call of that method.
+ */
+
+@Component
+public class RateLimitAnnotationValidator implements BeanPostProcessor, BeanFactoryAware {
+
+    private BeanFactory beanFactory;
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        ReflectionUtils.doWithMethods(ClassUtils.getUserClass(bean), method -> {
+            RateLimitPlan.validate(method);
+            for (RateLimit rateLimitAnnotation : method.getAnnotationsByType(RateLimit.class)) {
+                if (rateLimitAnnotation.mode() == RateLimitMode.RATE && !beanFactory.containsBean(rateLimitAnnotation.providerBeanName())) {
+                    throw new IllegalStateException("No provider bean named " + rateLimitAnnotation.providerBeanName() + " for RateLimit on "
+                            + method.getDeclaringClass().getSimpleName() + "." + method.getName());
+                }
+            }
+        }, method -> method.isAnnotationPresent(RateLimit.class) || method.isAnnotationPresent(MultiRateLimit.class));
+        return bean;
+    }
+}
@@ -0,0 +1,142 @@
+package com.payufin.integration.ratelimiter.aspects;
+
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.context.expression.BeanFactoryResolver;
+import org.springframework.expression.BeanResolver;
+import org.springframework.expression.ConstructorResolver;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.MethodResolver;
+import org.springframework.expression.OperatorOverloader;
+import org.springframework.expression.PropertyAccessor;
+import org.springframework.expression.TypeComparator;
+import org.springframework.expression.TypeConverter;
+import org.springframework.expression.TypeLocator;
+import org.springframework.expression.TypedValue;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SpEL expression of {@link com.payufin.integration.ratelimiter.annotations.RateLimit#keyExpression()},
+ * parsed once per method. Arguments are referenced by name, e.g. {@code #partnerId + ':' + #endpoint},
+ * or by position as #p0 or #a0, and beans as {@code @beanName}. The expression is compiled to
+ * bytecode after its first evaluations, falling back to interpretation when it cannot be compiled,
+ * and a call only allocates the small context holding its arguments.
+ */
+
+final class RateLimitKeyExpression {
+
+    private final Expression expression;
+
+    private final Map<String, Integer> argumentIndexes;
+
+    private final StandardEvaluationContext sharedContext;
+
+    RateLimitKeyExpression(String expressionString, Method method, String[] parameterNames, BeanFactory beanFactory) {
+        SpelExpressionParser parser = new SpelExpressionParser(
+                new SpelParserConfiguration(SpelCompilerMode.MIXED, method.getDeclaringClass().getClassLoader()));
+        this.expression = parser.parseExpression(expressionString);
+        this.argumentIndexes = new HashMap<>();
+        for (int i = 0; i < method.getParameterCount(); i++) {
+            argumentIndexes.put("p" + i, i);
+            argumentIndexes.put("a" + i, i);
+            if (parameterNames != null) {
+                argumentIndexes.put(parameterNames[i], i);
+            }
+        }
+        this.sharedContext = new StandardEvaluationContext();
+        sharedContext.setBeanResolver(new BeanFactoryResolver(beanFactory));
+    }
+
+    /**
+     * @param arguments arguments of the intercepted call
+     * @return value of the expression for the given call
+     */
+    Object getValue(Object[] arguments) {
+        return expression.getValue(new ArgumentsContext(arguments));
+    }
+
+    /**
+     * Resolves the variables of the expression to the arguments of the call and delegates the
+     * rest to the context shared by all the calls.
+     */
+    private final class ArgumentsContext implements EvaluationContext {
+
+        private final Object[] arguments;
+
+        private Map<String, Object> variables;
+
+        ArgumentsContext(Object[] arguments) {
+            this.arguments = arguments;
+        }
+
+        @Override
+        public Object lookupVariable(String name) {
+            Integer argumentIndex = argumentIndexes.get(name);
+            if (argumentIndex != null) {
+                return arguments[argumentIndex];
+            }
+            return variables != null ? variables.get(name) : null;
+        }
+
+        @Override
+        public void setVariable(String name, Object value) {
+            if (variables == null) {
+                variables = new HashMap<>();
+            }
+            variables.put(name, value);
+        }
+
+        @Override
+        public TypedValue getRootObject() {
+            return TypedValue.NULL;
+        }
+
+        @Override
+        public List<PropertyAccessor> getPropertyAccessors() {
+            return sharedContext.getPropertyAccessors();
+        }
+
+        @Override
+        public List<ConstructorResolver> getConstructorResolvers() {
+            return sharedContext.getConstructorResolvers();
+        }
+
+        @Override
+        public List<MethodResolver> getMethodResolvers() {
+            return sharedContext.getMethodResolvers();
+        }
+
+        @Override
+        public BeanResolver getBeanResolver() {
+            return sharedContext.getBeanResolver();
+        }
+
+        @Override
+        public TypeLocator getTypeLocator() {
+            return sharedContext.getTypeLocator();
+        }
+
+        @Override
+        public TypeConverter getTypeConverter() {
+            return sharedContext.getTypeConverter();
+        }
+
+        @Override
+        public TypeComparator getTypeComparator() {
+            return sharedContext.getTypeComparator();
+        }
+
+        @Override
+        public OperatorOverloader getOperatorOverloader() {
+            return sharedContext.getOperatorOverloader();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.payufin.integration.ratelimiter.aspects;
+
+import com.payufin.integration.ratelimiter.annotations.RateLimit;
+import com.payufin.integration.ratelimiter.configs.RateLimitConcurrencyProperties;
+import com.payufin.integration.ratelimiter.configs.RateLimitConfigProvider;
+import com.payufin.integration.ratelimiter.metrics.LimitMeters;
+import com.payufin.integration.ratelimiter.metrics.MethodMeters;
+import com.payufin.integration.ratelimiter.metrics.RateLimiterMetrics;
+import com.payufin.integration.ratelimiter.models.RateLimitKeyProvider;
+import com.payufin.integration.ratelimiter.models.RateLimitMode;
+import com.payufin.integration.ratelimiter.services.AdaptiveConcurrencyLimiter;
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.payufin.integration.ratelimiter.utils.constants.EMPTY_STRING;
+
+/**
+ * Immutable rate limiting plan of an annotated method. It is resolved once per {@link Method}
+ * by {@link MethodAspect} so that the intercepted call does not need any reflection, sorting
+ * or bean lookups.
+ */
+
+@Slf4j
+@Value
+class RateLimitPlan {
+
+    private static final List<String> EMPTY_KEY = Collections.singletonList(EMPTY_STRING);
+
+    LimitPlan[] limits;
+
+    InvocationType invocationType;
+
+    MethodMeters methodMeters;
+
+    /**
+     * Simple name of the class and name of the method, e.g. PartnerService.search.
+     */
+    String methodName;
+
+    /**
+     * True when at least one limit picks its shard by an argument.
+     */
+    boolean shardKeyed;
+
+    /**
+     * Maximum time a call waits for the tokens to refill, 0 when it is rejected right away.
+     */
+    long maxWaitNanos;
+
+    /**
+     * Limiter of the calls in flight, null when no RateLimit annotation is in CONCURRENCY mode.
+     */
+    AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * Resolves the plan of the given method. RateLimit annotations are sorted by priority and
+     * key object name, the same order in which they were checked before. Annotations in
+     * CONCURRENCY mode share a single limiter of the method.
+     *
+     * @param method                annotated method
+     * @param parameterNames        parameter names of the annotated method
+     * @param beanFactory           bean factory used to resolve the configuration providers
+     * @param metrics               metrics used to create the meters of the method
+     * @param concurrencyProperties settings of the concurrency limiter of the method
+     * @return plan of the method
+     */
+    static RateLimitPlan of(Method method, String[] parameterNames, BeanFactory beanFactory, RateLimiterMetrics metrics,
+                            RateLimitConcurrencyProperties concurrencyProperties) {
+        validate(method);
+        RateLimit[] annotations = method.getAnnotationsByType(RateLimit.class);
+        RateLimit[] rateLimitAnnotations = Arrays.stream(annotations)
+                .filter(rateLimitAnnotation -> rateLimitAnnotation.mode() == RateLimitMode.RATE)
+                .sorted(Comparator.comparing(RateLimit::priority).thenComparing(RateLimit::keyObjectName)
+                        .thenComparing(RateLimit::keyExpression))
+                .toArray(RateLimit[]::new);
+        String methodName = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+        AdaptiveConcurrencyLimiter concurrencyLimiter = null;
+        if (rateLimitAnnotations.length < annotations.length) {
+            concurrencyLimiter = new AdaptiveConcurrencyLimiter(methodName, concurrencyProperties);
+            metrics.bindConcurrencyLimiter(method, concurrencyLimiter);
+        }
+
+        LimitPlan[] limits = new LimitPlan[rateLimitAnnotations.length];
+        boolean shardKeyed = false;
+        long maxWaitMillis = rateLimitAnnotations.length > 0 ? Long.MAX_VALUE : 0;
+        for (int i = 0; i < rateLimitAnnotations.length; i++) {
+            RateLimit rateLimitAnnotation = rateLimitAnnotations[i];
+            RateLimitConfigProvider<?> rateLimitConfigProvider = beanFactory.getBean(rateLimitAnnotation.providerBeanName(),
+                    RateLimitConfigProvider.class);
+            List<String> defaultKeys = StringUtils.hasLength(rateLimitAnnotation.defaultKey())
+                    ? Collections.singletonList(rateLimitAnnotation.keyPrefix() + rateLimitAnnotation.defaultKey()) : null;
+            RateLimitKeyExpression keyExpression = StringUtils.hasLength(rateLimitAnnotation.keyExpression())
+                    ? new RateLimitKeyExpression(rateLimitAnnotation.keyExpression(), method, parameterNames, beanFactory) : null;
+            limits[i] = new LimitPlan(rateLimitAnnotation, rateLimitConfigProvider, defaultKeys, keyExpression,
+                    indexOf(parameterNames, rateLimitAnnotation.keyObjectName()),
+                    StringUtils.hasLength(rateLimitAnnotation.shardKeyObjectName())
+                            ? indexOf(parameterNames, rateLimitAnnotation.shardKeyObjectName()) : -1,
+                    StringUtils.hasLength(rateLimitAnnotation.costObjectName())
+                            ? indexOf(parameterNames, rateLimitAnnotation.costObjectName()) : -1,
+                    metrics.limitMeters(method, rateLimitAnnotation.providerBeanName()));
+            shardKeyed |= limits[i].getShardKeyArgumentIndex() >= 0;
+            maxWaitMillis = Math.min(maxWaitMillis, Math.max(0, rateLimitAnnotation.maxWaitMillis()));
+        }
+        return new RateLimitPlan(limits, InvocationType.of(method.getReturnType()), metrics.methodMeters(method), methodName, shardKeyed,
+                TimeUnit.MILLISECONDS.toNanos(maxWaitMillis), concurrencyLimiter);
+    }
+
+    /**
+     * Checks the RateLimit annotations of the given method which cannot be checked by the
+     * compiler, so that a wrong annotation fails the startup instead of every call.
+     *
+     * @param method annotated method
+     * @throws IllegalStateException when an annotation in RATE mode has no providerBeanName
+     */
+    static void validate(Method method) {
+        for (RateLimit rateLimitAnnotation : method.getAnnotationsByType(RateLimit.class)) {
+            if (rateLimitAnnotation.mode() == RateLimitMode.RATE && !StringUtils.hasLength(rateLimitAnnotation.providerBeanName())) {
+                throw new IllegalStateException("providerBeanName is required in RATE mode on "
+                        + method.getDeclaringClass().getSimpleName() + "." + method.getName());
+            }
+        }
+    }
+
+    private static int indexOf(String[] parameterNames, String keyObjectName) {
+        if (parameterNames == null) {
+            return -1;
+        }
+        for (int i = 0; i < parameterNames.length; i++) {
+            if (parameterNames[i].equals(keyObjectName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decides whether the limits of a method are checked on the calling thread or chained in
+     * front of the value returned by the method.
+     */
+    enum InvocationType {
+        SYNC,
+        COMPLETABLE_FUTURE,
+        MONO,
+        FLUX;
+
+        private static final boolean REACTOR_PRESENT = ClassUtils.isPresent("reactor.core.publisher.Mono",
+                RateLimitPlan.class.getClassLoader());
+
+        static InvocationType of(Class<?> returnType) {
+            if (CompletionStage.class.isAssignableFrom(returnType) && returnType.isAssignableFrom(CompletableFuture.class)) {
+                return COMPLETABLE_FUTURE;
+            }
+            if (REACTOR_PRESENT) {
+                if ("reactor.core.publisher.Mono".equals(returnType.getName())) {
+                    return MONO;
+                }
+                if ("reactor.core.publisher.Flux".equals(returnType.getName())) {
+                    return FLUX;
+                }
+            }
+            return SYNC;
+        }
+    }
+
+    /**
+     * Resolved form of a single {@link RateLimit} annotation.
+     */
+    @Value
+    static class LimitPlan {
+
+        RateLimit rateLimit;
+
+        RateLimitConfigProvider<?> rateLimitConfigProvider;
+
+        /**
+         * Keys given through {@link RateLimit#defaultKey()}, null when the key comes from an argument.
+         */
+        List<String> defaultKeys;
+
+        /**
+         * Expression of {@link RateLimit#keyExpression()}, null when the key does not come from an expression.
+         */
+        RateLimitKeyExpression keyExpression;
+
+        /**
+         * Index of the argument named in {@link RateLimit#keyObjectName()}, -1 when there is no such argument.
+         */
+        int keyArgumentIndex;
+
+        /**
+         * Index of the argument named in {@link RateLimit#shardKeyObjectName()}, -1 when there is no such argument.
+         */
+        int shardKeyArgumentIndex;
+
+        /**
+         * Index of the argument named in {@link RateLimit#costObjectName()}, -1 when there is no such argument.
+         */
+        int costArgumentIndex;
+
+        LimitMeters limitMeters;
+
+        /**
+         * Set once a failure of the key expression was logged as a warning, later ones are logged at debug.
+         */
+        @Getter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        AtomicBoolean keyExpressionErrorLogged = new AtomicBoolean();
+
+        /**
+         * @param arguments arguments of the intercepted call
+         * @return Rate Limit keys of this limit for the given call
+         */
+        List<String> getRateLimitKeys(Object[] arguments) {
+            if (defaultKeys != null) {
+                return defaultKeys;
+            }
+            Object o;
+            if (keyExpression != null) {
+                try {
+                    o = keyExpression.getValue(arguments);
+                } catch (RuntimeException ex) {
+                    // Like a missing key argument, so that a failing expression does not fail the call.
+                    onKeyExpressionError(ex);
+                    return EMPTY_KEY;
+                }
+            } else {
+                o = keyArgumentIndex >= 0 ? arguments[keyArgumentIndex] : null;
+            }
+            if (o instanceof RateLimitKeyProvider) {
+                return withKeyPrefix(((RateLimitKeyProvider) o).getRateLimitKeys());
+            } else if (o instanceof String) {
+                return Collections.singletonList(rateLimit.keyPrefix().isEmpty() ? (String) o : rateLimit.keyPrefix() + o);
+            } else if (o != null && keyExpression != null) {
+                return Collections.singletonList(rateLimit.keyPrefix() + o);
+            }
+            return EMPTY_KEY;
+        }
+
+        private void onKeyExpressionError(RuntimeException ex) {
+            limitMeters.recordKeyExpressionError();
+            if (keyExpressionErrorLogged.compareAndSet(false, true)) {
+                log.warn("Key expression {} failed, the call is limited under the empty key. Further failures are logged at debug",
+                        rateLimit.keyExpression(), ex);
+            } else {
+                log.debug("Key expression {} failed, the call is limited under the empty key", rateLimit.keyExpression(), ex);
+            }
+        }
+
+        private List<String> withKeyPrefix(List<String> rateLimitKeys) {
+            if (rateLimit.keyPrefix().isEmpty()) {
+                return rateLimitKeys;
+            }
+            List<String> prefixedKeys = new ArrayList<>(rateLimitKeys.size());
+            for (String rateLimitKey : rateLimitKeys) {
+                prefixedKeys.add(rateLimit.keyPrefix() + rateLimitKey);
+            }
+            return prefixedKeys;
+        }
+
+        /**
+         * @param arguments arguments of the intercepted call
+         * @return value picking the shard of a sharded key, null for round-robin
+         */
+        Object getShardKey(Object[] arguments) {
+            return shardKeyArgumentIndex >= 0 ? arguments[shardKeyArgumentIndex] : null;
+        }
+
+        /**
+         * @param arguments arguments of the intercepted call
+         * @return number of tokens the call takes from every key of this limit
+         */
+        long getCost(Object[] arguments) {
+            Object o = costArgumentIndex >= 0 ? arguments[costArgumentIndex] : null;
+            long cost;
+            if (o instanceof Collection) {
+                cost = ((Collection<?>) o).size();
+            } else if (o instanceof Map) {
+                cost = ((Map<?, ?>) o).size();
+            } else if (o instanceof Number) {
+                cost = ((Number) o).longValue();
+            } else if (o != null && o.getClass().isArray()) {
+                cost = Array.getLength(o);
+            } else {
+                cost = rateLimit.cost();
+            }
+            return Math.max(1, cost);
+        }
+    }
+}
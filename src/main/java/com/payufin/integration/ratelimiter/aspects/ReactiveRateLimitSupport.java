@@ -0,0 +1,81 @@
+package com.payufin.integration.ratelimiter.aspects;
+
+import com.payufin.integration.ratelimiter.services.AdaptiveConcurrencyLimiter;
+import org.aspectj.lang.ProceedingJoinPoint;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Chains the Rate Limit check in front of functions returning Reactor types. The check runs
+ * on subscription, so a Mono or Flux which is never subscribed does not consume any token.
+ * A call limited in CONCURRENCY mode takes its slot before the check, so that a call rejected
+ * for concurrency takes no token, and gives it back without adjusting the limit when the check
+ * rejects it or it is cancelled. Its latency is measured from the subscription to the function
+ * until its Mono or Flux terminates.
+ * This class is only loaded when Reactor is present on the classpath.
+ */
+
+final class ReactiveRateLimitSupport {
+
+    private ReactiveRateLimitSupport() {
+    }
+
+    static Mono<Object> mono(Supplier<CompletableFuture<Void>> rateLimitCheck, ProceedingJoinPoint joinPoint,
+                             AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        Mono<Object> function = Mono.defer(() -> returnToFunction(joinPoint));
+        return check(rateLimitCheck, concurrencyLimiter)
+                .then(concurrencyLimiter == null ? function : Mono.defer(() -> {
+                    long startNanos = System.nanoTime();
+                    return function.doFinally(signalType -> release(concurrencyLimiter, startNanos, signalType));
+                }));
+    }
+
+    static Flux<Object> flux(Supplier<CompletableFuture<Void>> rateLimitCheck, ProceedingJoinPoint joinPoint,
+                             AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        Flux<Object> function = Flux.defer(() -> returnToFunction(joinPoint));
+        return check(rateLimitCheck, concurrencyLimiter)
+                .thenMany(concurrencyLimiter == null ? function : Flux.defer(() -> {
+                    long startNanos = System.nanoTime();
+                    return function.doFinally(signalType -> release(concurrencyLimiter, startNanos, signalType));
+                }));
+    }
+
+    /**
+     * Runs the check on subscription, holding a slot of the given limiter from before the check
+     * until the function is subscribed.
+     */
+    private static Mono<Void> check(Supplier<CompletableFuture<Void>> rateLimitCheck, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        if (concurrencyLimiter == null) {
+            return Mono.defer(() -> Mono.fromFuture(rateLimitCheck.get()));
+        }
+        return Mono.defer(() -> {
+            concurrencyLimiter.acquire();
+            return Mono.fromFuture(rateLimitCheck.get()).doFinally(signalType -> {
+                if (signalType != SignalType.ON_COMPLETE) {
+                    concurrencyLimiter.releaseIgnored();
+                }
+            });
+        });
+    }
+
+    private static void release(AdaptiveConcurrencyLimiter concurrencyLimiter, long startNanos, SignalType signalType) {
+        if (signalType == SignalType.CANCEL) {
+            concurrencyLimiter.releaseIgnored();
+        } else {
+            concurrencyLimiter.release(startNanos);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P> P returnToFunction(ProceedingJoinPoint joinPoint) {
+        try {
+            return (P) joinPoint.proceed();
+        } catch (Throwable ex) {
+            return (P) Mono.error(ex);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.payufin.integration.ratelimiter.backends;
+
+import com.payufin.integration.ratelimiter.jfr.RateLimitEvents;
+import io.github.bucket4j.distributed.proxy.ClientSideConfig;
+import io.github.bucket4j.distributed.proxy.generic.compare_and_swap.CompareAndSwapOperation;
+import io.github.bucket4j.redis.redisson.cas.RedissonBasedProxyManager;
+import org.redisson.command.CommandExecutor;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * {@link RedissonBasedProxyManager} counting, per thread, the compare-and-swap writes lost to
+ * another writer of the same bucket, each of which makes Bucket4j read the bucket and try again.
+ * Counting only happens while a flight recording is running, so the operations are not wrapped
+ * otherwise. Only the synchronous calls retry on the calling thread.
+ */
+
+public class CasRetryCountingProxyManager extends RedissonBasedProxyManager {
+
+    private static final ThreadLocal<long[]> CAS_RETRIES = ThreadLocal.withInitial(() -> new long[1]);
+
+    public CasRetryCountingProxyManager(CommandExecutor commandExecutor, ClientSideConfig clientSideConfig, Duration ttl) {
+        super(commandExecutor, clientSideConfig, ttl);
+    }
+
+    /**
+     * @return compare-and-swap retries of the current thread so far
+     */
+    public static long casRetries() {
+        return CAS_RETRIES.get()[0];
+    }
+
+    @Override
+    protected CompareAndSwapOperation beginCompareAndSwapOperation(String key) {
+        CompareAndSwapOperation operation = super.beginCompareAndSwapOperation(key);
+        if (!RateLimitEvents.isRecording()) {
+            return operation;
+        }
+        return new CompareAndSwapOperation() {
+            @Override
+            public Optional<byte[]> getStateData() {
+                return operation.getStateData();
+            }
+
+            @Override
+            public boolean compareAndSwap(byte[] originalData, byte[] newData) {
+                boolean swapped = operation.compareAndSwap(originalData, newData);
+                if (!swapped) {
+                    CAS_RETRIES.get()[0]++;
+                }
+                return swapped;
+            }
+        };
+    }
+}
@@ -0,0 +1,84 @@
+package com.payufin.integration.ratelimiter.backends;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free circuit breaker used by {@link CircuitBreakingBackend}. The circuit opens after the
+ * configured number of consecutive failures; once the open duration has elapsed a single probe
+ * call is let through, which closes the circuit on success and opens it again on failure.
+ */
+
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAtNanos;
+
+    public CircuitBreaker(int failureThreshold, long openDurationMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+    }
+
+    /**
+     * @return true when the call may go to the protected backend
+     */
+    public boolean allowRequest() {
+        State currentState = state.get();
+        if (currentState == State.CLOSED) {
+            return true;
+        }
+        return currentState == State.OPEN
+                && System.nanoTime() - openedAtNanos >= openDurationNanos
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN);
+    }
+
+    /**
+     * Records a successful call. Only the probe call closes an open circuit: a success reported
+     * while the circuit is open comes from a call started before it opened and is ignored.
+     */
+    public void onSuccess() {
+        State currentState = state.get();
+        if (currentState == State.OPEN) {
+            return;
+        }
+        if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+        if (currentState == State.HALF_OPEN) {
+            state.compareAndSet(State.HALF_OPEN, State.CLOSED);
+        }
+    }
+
+    public void onFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        State currentState = state.get();
+        if (currentState == State.HALF_OPEN || (currentState == State.CLOSED && failures >= failureThreshold)) {
+            openedAtNanos = System.nanoTime();
+            state.compareAndSet(currentState, State.OPEN);
+        }
+    }
+
+    /**
+     * @return nanos until the next probe call is let through, 0 when the circuit is not open
+     */
+    public long getNanosUntilProbe() {
+        if (state.get() != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openDurationNanos - (System.nanoTime() - openedAtNanos));
+    }
+
+    public State getState() {
+        return state.get();
+    }
+}
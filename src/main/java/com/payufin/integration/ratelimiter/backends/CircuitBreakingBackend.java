@@ -0,0 +1,296 @@
+package com.payufin.integration.ratelimiter.backends;
+
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import com.payufin.integration.ratelimiter.services.BucketConfigService;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.ConsumptionProbe;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Guards the Redis backend with a latency budget per call and a {@link CircuitBreaker}. A call
+ * which fails or exceeds the budget counts as a failure; while the circuit is open, calls do not
+ * go to Redis and are answered by the configured {@link FallbackPolicy} instead. A call answered
+ * by the fallback after exceeding the budget may still be consumed by Redis later; the tokens it
+ * took are then given back, so that the call is not charged twice.
+ */
+
+@Slf4j
+@Primary
+@Component
+@ConditionalOnExpression("${rate-limiter.circuit-breaker.enabled:false} and '${rate-limiter.backend:redis}'.startsWith('redis')")
+public class CircuitBreakingBackend implements RateLimitBackend, DisposableBean {
+
+    public enum FallbackPolicy {
+        /**
+         * Limit on every node with the global limit divided by rate-limiter.circuit-breaker.nodeCount.
+         */
+        LOCAL,
+        /**
+         * Allow every call.
+         */
+        FAIL_OPEN,
+        /**
+         * Reject every call.
+         */
+        FAIL_CLOSED
+    }
+
+    private final RateLimitBackend redisBackend;
+    private final InMemoryBucketBackend localBackend;
+    private final CircuitBreaker circuitBreaker;
+    private final FallbackPolicy fallbackPolicy;
+    private final int nodeCount;
+    private final long timeoutMillis;
+    private final ScheduledThreadPoolExecutor timeoutScheduler;
+
+    @Autowired
+    public CircuitBreakingBackend(@Qualifier("redisRateLimitBackend") RateLimitBackend redisBackend, BucketConfigService bucketConfigService,
+                                  @Value("${rate-limiter.circuit-breaker.timeoutMillis:100}") long timeoutMillis,
+                                  @Value("${rate-limiter.circuit-breaker.failureThreshold:5}") int failureThreshold,
+                                  @Value("${rate-limiter.circuit-breaker.openDurationMillis:5000}") long openDurationMillis,
+                                  @Value("${rate-limiter.circuit-breaker.fallback:LOCAL}") FallbackPolicy fallbackPolicy,
+                                  @Value("${rate-limiter.circuit-breaker.nodeCount:1}") int nodeCount,
+                                  @Value("${rate-limiter.in-memory.maxSize:100000}") long localMaxSize,
+                                  @Value("${rate-limiter.in-memory.expireAfterAccessSeconds:3600}") long localExpireAfterAccessSeconds) {
+        this.redisBackend = redisBackend;
+        this.localBackend = new InMemoryBucketBackend(bucketConfigService, localMaxSize, localExpireAfterAccessSeconds);
+        this.circuitBreaker = new CircuitBreaker(failureThreshold, openDurationMillis);
+        this.fallbackPolicy = fallbackPolicy;
+        this.nodeCount = Math.max(1, nodeCount);
+        this.timeoutMillis = timeoutMillis;
+        this.timeoutScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "rate-limiter-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timeoutScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Returns the Redis bucket unless the circuit is open or probing with the LOCAL fallback. The
+     * calls on the returned bucket are not reported to the circuit breaker, so the state is only
+     * read here and the probe call is left to the consumptions.
+     */
+    @Override
+    public Bucket resolveBucket(RateLimiterDto rateLimiterDto) {
+        return circuitBreaker.getState() == CircuitBreaker.State.CLOSED || fallbackPolicy != FallbackPolicy.LOCAL
+                ? redisBackend.resolveBucket(rateLimiterDto)
+                : localBackend.resolveBucket(toLocalRateLimiterDto(rateLimiterDto));
+    }
+
+    @Override
+    public ConsumptionProbe tryConsume(RateLimiterDto rateLimiterDto, long tokens) {
+        if (!circuitBreaker.allowRequest()) {
+            return fallback(rateLimiterDto, tokens);
+        }
+        CompletableFuture<ConsumptionProbe> consumption = null;
+        try {
+            consumption = redisBackend.tryConsumeAsync(rateLimiterDto, tokens);
+            ConsumptionProbe consumptionProbe = consumption.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            circuitBreaker.onSuccess();
+            return consumptionProbe;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            refundWhenLate(consumption, rateLimiterDto, tokens);
+            return onFailure(ex, rateLimiterDto, tokens);
+        } catch (TimeoutException ex) {
+            refundWhenLate(consumption, rateLimiterDto, tokens);
+            return onFailure(ex, rateLimiterDto, tokens);
+        } catch (ExecutionException | RuntimeException ex) {
+            return onFailure(ex, rateLimiterDto, tokens);
+        }
+    }
+
+    @Override
+    public CompletableFuture<ConsumptionProbe> tryConsumeAsync(RateLimiterDto rateLimiterDto, long tokens) {
+        if (!circuitBreaker.allowRequest()) {
+            return CompletableFuture.completedFuture(fallback(rateLimiterDto, tokens));
+        }
+        CompletableFuture<ConsumptionProbe> consumption = redisBackend.tryConsumeAsync(rateLimiterDto, tokens);
+        return withTimeout(consumption, () -> refundWhenLate(consumption, rateLimiterDto, tokens)).handle((consumptionProbe, ex) -> {
+            if (ex != null) {
+                return onFailure(ex, rateLimiterDto, tokens);
+            }
+            circuitBreaker.onSuccess();
+            return consumptionProbe;
+        });
+    }
+
+    @Override
+    public ConsumptionProbe[] tryConsumeAll(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        if (!circuitBreaker.allowRequest()) {
+            return fallbackAll(rateLimiterDtos, tokens);
+        }
+        CompletableFuture<ConsumptionProbe[]> consumption = null;
+        try {
+            consumption = redisBackend.tryConsumeAllAsync(rateLimiterDtos, tokens);
+            ConsumptionProbe[] consumptionProbes = consumption.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            circuitBreaker.onSuccess();
+            return consumptionProbes;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            refundAllWhenLate(consumption, rateLimiterDtos, tokens);
+            return onFailureAll(ex, rateLimiterDtos, tokens);
+        } catch (TimeoutException ex) {
+            refundAllWhenLate(consumption, rateLimiterDtos, tokens);
+            return onFailureAll(ex, rateLimiterDtos, tokens);
+        } catch (ExecutionException | RuntimeException ex) {
+            return onFailureAll(ex, rateLimiterDtos, tokens);
+        }
+    }
+
+    @Override
+    public CompletableFuture<ConsumptionProbe[]> tryConsumeAllAsync(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        if (!circuitBreaker.allowRequest()) {
+            return CompletableFuture.completedFuture(fallbackAll(rateLimiterDtos, tokens));
+        }
+        CompletableFuture<ConsumptionProbe[]> consumption = redisBackend.tryConsumeAllAsync(rateLimiterDtos, tokens);
+        return withTimeout(consumption, () -> refundAllWhenLate(consumption, rateLimiterDtos, tokens)).handle((consumptionProbes, ex) -> {
+            if (ex != null) {
+                return onFailureAll(ex, rateLimiterDtos, tokens);
+            }
+            circuitBreaker.onSuccess();
+            return consumptionProbes;
+        });
+    }
+
+    @Override
+    public void evict(String key) {
+        redisBackend.evict(key);
+        localBackend.evict(key);
+    }
+
+    @Override
+    public void warmUp(List<RateLimiterDto> rateLimiterDtos) {
+        redisBackend.warmUp(rateLimiterDtos);
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @Override
+    public void destroy() {
+        timeoutScheduler.shutdownNow();
+    }
+
+    private ConsumptionProbe onFailure(Throwable ex, RateLimiterDto rateLimiterDto, long tokens) {
+        circuitBreaker.onFailure();
+        log.warn("Redis backend failed for key {}, circuit is {}: {}", rateLimiterDto.getKey(), circuitBreaker.getState(), ex.toString());
+        return fallback(rateLimiterDto, tokens);
+    }
+
+    private ConsumptionProbe[] onFailureAll(Throwable ex, List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        circuitBreaker.onFailure();
+        log.warn("Redis backend failed for {} keys, circuit is {}: {}", rateLimiterDtos.size(), circuitBreaker.getState(), ex.toString());
+        return fallbackAll(rateLimiterDtos, tokens);
+    }
+
+    private void refundWhenLate(CompletableFuture<ConsumptionProbe> consumption, RateLimiterDto rateLimiterDto, long tokens) {
+        if (consumption != null) {
+            refundAllWhenLate(consumption.thenApply(consumptionProbe -> new ConsumptionProbe[]{consumptionProbe}),
+                    Collections.singletonList(rateLimiterDto), new long[]{tokens});
+        }
+    }
+
+    /**
+     * Gives back the tokens of a consumption which completes after its call was answered by the
+     * fallback. A consumption which fails or is rejected took nothing.
+     */
+    private void refundAllWhenLate(CompletableFuture<ConsumptionProbe[]> consumption, List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        if (consumption == null) {
+            return;
+        }
+        consumption.thenAccept(consumptionProbes -> {
+            if (RateLimitBackend.allConsumed(consumptionProbes)) {
+                redisBackend.refundAllAsync(rateLimiterDtos, tokens).whenComplete((ignored, ex) -> {
+                    if (ex != null) {
+                        log.warn("Unable to give back the tokens of a timed out call to {} keys", rateLimiterDtos.size(), ex);
+                    }
+                });
+            }
+        });
+    }
+
+    private ConsumptionProbe fallback(RateLimiterDto rateLimiterDto, long tokens) {
+        switch (fallbackPolicy) {
+            case FAIL_OPEN:
+                return ConsumptionProbe.consumed(rateLimiterDto.getMaxLimit(), 0);
+            case FAIL_CLOSED:
+                long nanosUntilProbe = circuitBreaker.getNanosUntilProbe();
+                return ConsumptionProbe.rejected(0, nanosUntilProbe, nanosUntilProbe);
+            default:
+                return localBackend.tryConsume(toLocalRateLimiterDto(rateLimiterDto), tokens);
+        }
+    }
+
+    private ConsumptionProbe[] fallbackAll(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        if (fallbackPolicy == FallbackPolicy.LOCAL) {
+            List<RateLimiterDto> localRateLimiterDtos = new ArrayList<>(rateLimiterDtos.size());
+            for (RateLimiterDto rateLimiterDto : rateLimiterDtos) {
+                localRateLimiterDtos.add(toLocalRateLimiterDto(rateLimiterDto));
+            }
+            return localBackend.tryConsumeAll(localRateLimiterDtos, tokens);
+        }
+        ConsumptionProbe[] consumptionProbes = new ConsumptionProbe[rateLimiterDtos.size()];
+        for (int i = 0; i < consumptionProbes.length; i++) {
+            consumptionProbes[i] = fallback(rateLimiterDtos.get(i), tokens[i]);
+        }
+        return consumptionProbes;
+    }
+
+    /**
+     * Local share of a global limit: the limit divided by the number of nodes, without leasing.
+     * A node does not know its index, so every node takes the share of the last one, which gets
+     * no part of the remainder.
+     */
+    private RateLimiterDto toLocalRateLimiterDto(RateLimiterDto rateLimiterDto) {
+        return rateLimiterDto.toBuilder()
+                .maxLimit(Math.max(1, rateLimiterDto.getMaxLimit() / nodeCount))
+                .bandwidths(rateLimiterDto.bandwidthsDividedBy(nodeCount, nodeCount - 1))
+                .leaseSize(0)
+                .build();
+    }
+
+    /**
+     * Completes exceptionally with {@link TimeoutException}, and runs onTimeout, when the given
+     * future does not complete within the latency budget, without blocking any thread.
+     */
+    private <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, Runnable onTimeout) {
+        if (future.isDone()) {
+            return future;
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> {
+            if (result.completeExceptionally(new TimeoutException())) {
+                onTimeout.run();
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((value, ex) -> {
+            timeout.cancel(false);
+            if (ex != null) {
+                result.completeExceptionally(ex);
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+}
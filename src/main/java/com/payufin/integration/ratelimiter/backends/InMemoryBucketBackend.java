@@ -0,0 +1,129 @@
+package com.payufin.integration.ratelimiter.backends;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import com.payufin.integration.ratelimiter.services.BucketConfigService;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.ConsumptionProbe;
+import io.github.bucket4j.TokensInheritanceStrategy;
+import io.github.bucket4j.local.LocalBucketBuilder;
+import io.github.bucket4j.local.SynchronizationStrategy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backend which keeps lock-free Bucket4j buckets in the JVM, so limits are applied per node
+ * without any network call. Buckets are kept in a bounded concurrent cache; a bucket idle for
+ * longer than its refill period is full again, so evicting it after
+ * rate-limiter.in-memory.expireAfterAccessSeconds does not lose any state for shorter periods.
+ */
+
+@Component
+@ConditionalOnProperty(name = "rate-limiter.backend", havingValue = "in-memory")
+public class InMemoryBucketBackend implements RateLimitBackend {
+
+    private final BucketConfigService bucketConfigService;
+    private final Cache<String, LocalBucket> localBuckets;
+
+    @Autowired
+    public InMemoryBucketBackend(BucketConfigService bucketConfigService,
+                                 @Value("${rate-limiter.in-memory.maxSize:100000}") long maxSize,
+                                 @Value("${rate-limiter.in-memory.expireAfterAccessSeconds:3600}") long expireAfterAccessSeconds) {
+        this.bucketConfigService = bucketConfigService;
+        this.localBuckets = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(expireAfterAccessSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @Override
+    public Bucket resolveBucket(RateLimiterDto rateLimiterDto) {
+        LocalBucket localBucket = localBuckets.getIfPresent(rateLimiterDto.getKey());
+        if (localBucket != null && localBucket.getRateLimiterDto().equals(rateLimiterDto)) {
+            return localBucket.getBucket();
+        }
+
+        BucketConfiguration bucketConfiguration = bucketConfigService.getBucketConfiguration(rateLimiterDto);
+        Bucket bucket;
+        if (localBucket != null) {
+            bucket = localBucket.getBucket();
+            bucket.replaceConfiguration(bucketConfiguration, TokensInheritanceStrategy.AS_IS);
+            localBuckets.put(rateLimiterDto.getKey(), new LocalBucket(rateLimiterDto, bucket));
+        } else {
+            bucket = localBuckets.get(rateLimiterDto.getKey(), key -> new LocalBucket(rateLimiterDto, build(bucketConfiguration))).getBucket();
+        }
+        return bucket;
+    }
+
+    @Override
+    public ConsumptionProbe tryConsume(RateLimiterDto rateLimiterDto, long tokens) {
+        return resolveBucket(rateLimiterDto).tryConsumeAndReturnRemaining(tokens);
+    }
+
+    @Override
+    public CompletableFuture<ConsumptionProbe> tryConsumeAsync(RateLimiterDto rateLimiterDto, long tokens) {
+        return CompletableFuture.completedFuture(tryConsume(rateLimiterDto, tokens));
+    }
+
+    @Override
+    public ConsumptionProbe[] tryConsumeAll(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        int size = rateLimiterDtos.size();
+        Bucket[] buckets = new Bucket[size];
+        ConsumptionProbe[] consumptionProbes = new ConsumptionProbe[size];
+        boolean allConsumed = true;
+        for (int i = 0; i < size; i++) {
+            buckets[i] = resolveBucket(rateLimiterDtos.get(i));
+            consumptionProbes[i] = buckets[i].tryConsumeAndReturnRemaining(tokens[i]);
+            allConsumed &= consumptionProbes[i].isConsumed();
+        }
+        if (!allConsumed) {
+            for (int i = 0; i < size; i++) {
+                if (consumptionProbes[i].isConsumed()) {
+                    buckets[i].addTokens(tokens[i]);
+                }
+            }
+        }
+        return consumptionProbes;
+    }
+
+    @Override
+    public CompletableFuture<ConsumptionProbe[]> tryConsumeAllAsync(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        return CompletableFuture.completedFuture(tryConsumeAll(rateLimiterDtos, tokens));
+    }
+
+    @Override
+    public void evict(String key) {
+        localBuckets.invalidate(key);
+    }
+
+    @Override
+    public void warmUp(List<RateLimiterDto> rateLimiterDtos) {
+        rateLimiterDtos.forEach(this::resolveBucket);
+    }
+
+    private static Bucket build(BucketConfiguration bucketConfiguration) {
+        LocalBucketBuilder bucketBuilder = Bucket.builder().withSynchronizationStrategy(SynchronizationStrategy.LOCK_FREE);
+        for (Bandwidth bandwidth : bucketConfiguration.getBandwidths()) {
+            bucketBuilder.addLimit(bandwidth);
+        }
+        return bucketBuilder.build();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class LocalBucket {
+        private final RateLimiterDto rateLimiterDto;
+        private final Bucket bucket;
+    }
+}
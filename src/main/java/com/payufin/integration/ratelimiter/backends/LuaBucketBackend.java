@@ -0,0 +1,456 @@
+package com.payufin.integration.ratelimiter.backends;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.payufin.integration.ratelimiter.models.RateLimitAlgorithm;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import com.payufin.integration.ratelimiter.services.BucketConfigService;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.ConsumptionProbe;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.SlotCallback;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.client.protocol.RedisCommand;
+import org.redisson.client.protocol.RedisCommands;
+import org.redisson.client.protocol.decoder.ObjectListReplayDecoder;
+import org.redisson.command.CommandAsyncExecutor;
+import org.redisson.connection.ConnectionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis backend which consumes from the buckets with a server side Lua script. Unlike the
+ * compare-and-swap loop of Bucket4j's proxy manager, which reads the bucket and retries its write
+ * whenever another node got there first, a check costs one round trip however many nodes hit the
+ * same key, and the buckets of all the keys of a call on one slot are consumed atomically. The script also
+ * implements the {@link RateLimitAlgorithm#GCRA} and {@link RateLimitAlgorithm#SLIDING_WINDOW}
+ * algorithms, which store a single timestamp and two counters per key respectively.
+ * <p>
+ * Selected with rate-limiter.backend=redis-lua. The buckets are not Bucket4j buckets, so
+ * {@link #resolveBucket(RateLimiterDto)} returns a {@link ScriptedBucket} running the script.
+ */
+
+@Slf4j
+@Component("redisRateLimitBackend")
+@ConditionalOnProperty(name = "rate-limiter.backend", havingValue = "redis-lua")
+public class LuaBucketBackend implements RateLimitBackend {
+
+    private static final String SCRIPT_LOCATION = "ratelimiter/rate-limit.lua";
+
+    private static final RedisCommand<List<Object>> EVALSHA_LIST = new RedisCommand<>("EVALSHA", new ObjectListReplayDecoder<>());
+
+    private static final String CONSUME = "C";
+
+    private static final String PEEK = "P";
+
+    private static final String FORCE = "F";
+
+    private final CommandAsyncExecutor commandExecutor;
+    private final BucketConfigService bucketConfigService;
+    private final Cache<String, LuaBucket> luaBuckets;
+    private final String script;
+    private final String scriptSha;
+    private final String expiryMillis;
+
+    @Autowired
+    public LuaBucketBackend(@Qualifier("rateLimiterCommandExecutor") CommandAsyncExecutor commandExecutor, BucketConfigService bucketConfigService,
+                            @Value("${rate-limiter.bucket4j-redisKey.expiry}") int expiry,
+                            @Value("${rate-limiter.bucket4j-redisKey.expiryTimeUnit}") String expiryTimeUnit,
+                            @Value("${rate-limiter.bucket-cache.maxSize:100000}") long bucketCacheMaxSize,
+                            @Value("${rate-limiter.bucket-cache.expireAfterAccessSeconds:3600}") long bucketCacheExpireAfterAccessSeconds) throws IOException {
+        this.commandExecutor = commandExecutor;
+        this.bucketConfigService = bucketConfigService;
+        this.luaBuckets = Caffeine.newBuilder()
+                .maximumSize(bucketCacheMaxSize)
+                .expireAfterAccess(bucketCacheExpireAfterAccessSeconds, TimeUnit.SECONDS)
+                .build();
+        try (InputStream inputStream = new ClassPathResource(SCRIPT_LOCATION).getInputStream()) {
+            this.script = StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8);
+        }
+        this.scriptSha = sha1Hex(script);
+        this.expiryMillis = String.valueOf(Duration.of(expiry, ChronoUnit.valueOf(expiryTimeUnit.toUpperCase())).toMillis());
+    }
+
+    @Override
+    public Bucket resolveBucket(RateLimiterDto rateLimiterDto) {
+        return new ScriptedBucket(this, rateLimiterDto);
+    }
+
+    @Override
+    public ConsumptionProbe tryConsume(RateLimiterDto rateLimiterDto, long tokens) {
+        return join(tryConsumeAsync(rateLimiterDto, tokens));
+    }
+
+    @Override
+    public CompletableFuture<ConsumptionProbe> tryConsumeAsync(RateLimiterDto rateLimiterDto, long tokens) {
+        return tryConsumeAllAsync(Collections.singletonList(rateLimiterDto), new long[]{tokens})
+                .thenApply(consumptionProbes -> consumptionProbes[0]);
+    }
+
+    /**
+     * All the buckets of a slot are consumed by a single script, so either all of them or none of
+     * them are consumed without having to give tokens back.
+     */
+    @Override
+    public ConsumptionProbe[] tryConsumeAll(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        return join(tryConsumeAllAsync(rateLimiterDtos, tokens));
+    }
+
+    @Override
+    public CompletableFuture<ConsumptionProbe[]> tryConsumeAllAsync(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        return evalLimits(rateLimiterDtos, tokens).thenApply(LuaBucketBackend::toConsumptionProbes);
+    }
+
+    @Override
+    public CompletableFuture<Void> refundAllAsync(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        return evalLimits(rateLimiterDtos, negate(tokens)).thenApply(ignored -> null);
+    }
+
+    /**
+     * Tells what consuming the given number of tokens from the limit of the key would return,
+     * without changing its state.
+     *
+     * @param rateLimiterDto Rate Limiter Object
+     * @param tokens         number of tokens to consume
+     * @return consumption probe the consumption would return
+     */
+    ConsumptionProbe peek(RateLimiterDto rateLimiterDto, long tokens) {
+        LuaBucket[] buckets = {resolve(rateLimiterDto)};
+        return join(evalSlot(buckets, allPositions(1), new long[]{tokens}, PEEK).thenApply(LuaBucketBackend::toConsumptionProbes))[0];
+    }
+
+    /**
+     * Consumes the given number of tokens from the limit of the key whether or not they are
+     * available, so that the limit goes below zero, or gives them back above the capacity of a
+     * token bucket when negative.
+     *
+     * @param rateLimiterDto Rate Limiter Object
+     * @param tokens         number of tokens to consume, negative to add them
+     * @return nanos to wait until the limit is no longer below zero
+     */
+    long forceConsume(RateLimiterDto rateLimiterDto, long tokens) {
+        LuaBucket[] buckets = {resolve(rateLimiterDto)};
+        return join(evalSlot(buckets, allPositions(1), new long[]{tokens}, FORCE).thenApply(result -> toNanos((Long) result.get(2))));
+    }
+
+    /**
+     * Deletes the state of the limit of the key, which is full again on the next call.
+     *
+     * @param rateLimiterDto Rate Limiter Object
+     */
+    void reset(RateLimiterDto rateLimiterDto) {
+        String bucketKey = resolve(rateLimiterDto).getBucketKey();
+        join(commandExecutor.<Void, Void>writeAsync(bucketKey, StringCodec.INSTANCE, RedisCommands.DEL_VOID, bucketKey).toCompletableFuture());
+    }
+
+    /**
+     * In cluster mode a script can only touch the keys of one slot, so the keys of a call are run
+     * by one script per slot. The slots are consumed in parallel and, when some of them are
+     * rejected or fail, the tokens taken from the others are given back.
+     */
+    private CompletableFuture<List<Object>> evalLimits(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        int size = rateLimiterDtos.size();
+        LuaBucket[] buckets = new LuaBucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = resolve(rateLimiterDtos.get(i));
+        }
+        if (size == 1) {
+            return evalSlot(buckets, allPositions(size), tokens, CONSUME);
+        }
+
+        Map<Integer, List<Integer>> positionsBySlot = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            positionsBySlot.computeIfAbsent(calcSlot(buckets[i].getBucketKey()), slot -> new ArrayList<>()).add(i);
+        }
+        if (positionsBySlot.size() == 1) {
+            return evalSlot(buckets, allPositions(size), tokens, CONSUME);
+        }
+        return evalSlots(buckets, new ArrayList<>(positionsBySlot.values()), tokens);
+    }
+
+    /**
+     * @param bucketKey Redis key of a limit
+     * @return cluster slot of the key, the same slot for all the keys outside of cluster mode
+     */
+    int calcSlot(String bucketKey) {
+        ConnectionManager connectionManager = commandExecutor.getConnectionManager();
+        return connectionManager.isClusterMode() ? connectionManager.calcSlot(bucketKey) : 0;
+    }
+
+    /**
+     * Consumes the given slots in parallel, each one with its own script.
+     *
+     * @param buckets       limits of all the keys of the call
+     * @param slotPositions positions in buckets of the keys of every slot
+     * @param tokens        number of tokens to consume from the limit of every key
+     * @return results of all the keys, in the order of buckets
+     */
+    private CompletableFuture<List<Object>> evalSlots(LuaBucket[] buckets, List<List<Integer>> slotPositions, long[] tokens) {
+        CompletableFuture<?>[] evals = new CompletableFuture<?>[slotPositions.size()];
+        List<List<Object>> slotResults = new ArrayList<>(Collections.nCopies(slotPositions.size(), null));
+        for (int s = 0; s < evals.length; s++) {
+            int slotIndex = s;
+            evals[s] = evalSlot(buckets, slotPositions.get(s), tokens, CONSUME).thenAccept(result -> slotResults.set(slotIndex, result));
+        }
+        return CompletableFuture.allOf(evals).handle((ignored, ex) -> {
+            boolean allConsumed = ex == null;
+            for (List<Object> slotResult : slotResults) {
+                allConsumed &= slotResult != null && allConsumed(slotResult);
+            }
+            if (!allConsumed) {
+                for (int s = 0; s < evals.length; s++) {
+                    List<Integer> positions = slotPositions.get(s);
+                    List<Object> slotResult = slotResults.get(s);
+                    if (slotResult != null && tokens[positions.get(0)] > 0 && allConsumed(slotResult)) {
+                        refundSlot(buckets, positions, tokens);
+                    }
+                }
+            }
+            if (ex != null) {
+                throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+            }
+            Object[] result = new Object[buckets.length * 4];
+            for (int s = 0; s < evals.length; s++) {
+                List<Integer> positions = slotPositions.get(s);
+                List<Object> slotResult = slotResults.get(s);
+                for (int p = 0; p < positions.size(); p++) {
+                    for (int field = 0; field < 4; field++) {
+                        result[positions.get(p) * 4 + field] = slotResult.get(p * 4 + field);
+                    }
+                }
+            }
+            return Arrays.asList(result);
+        });
+    }
+
+    private void refundSlot(LuaBucket[] buckets, List<Integer> positions, long[] tokens) {
+        evalSlot(buckets, positions, negate(tokens), CONSUME).whenComplete((refunded, ex) -> {
+            if (ex != null) {
+                log.warn("Unable to give back tokens to {} limits", positions.size(), ex);
+            }
+        });
+    }
+
+    private CompletableFuture<List<Object>> evalSlot(LuaBucket[] buckets, List<Integer> positions, long[] tokens, String mode) {
+        List<Object> keys = new ArrayList<>(positions.size());
+        List<Object> params = new ArrayList<>(2 + positions.size() * 8);
+        params.add(expiryMillis);
+        params.add(mode);
+        for (int position : positions) {
+            keys.add(buckets[position].getBucketKey());
+            params.add(String.valueOf(tokens[position]));
+            params.addAll(Arrays.asList(buckets[position].getLimitParams()));
+        }
+        return eval(keys, params);
+    }
+
+    private static List<Integer> allPositions(int size) {
+        List<Integer> positions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            positions.add(i);
+        }
+        return positions;
+    }
+
+    private static long[] negate(long[] tokens) {
+        long[] negated = new long[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            negated[i] = -tokens[i];
+        }
+        return negated;
+    }
+
+    private static boolean allConsumed(List<Object> result) {
+        for (int i = 0; i < result.size(); i += 4) {
+            if ((Long) result.get(i) != 1L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void evict(String key) {
+        luaBuckets.invalidate(key);
+    }
+
+    /**
+     * Also loads the script on every master, so that the first calls do not go through NOSCRIPT.
+     */
+    @Override
+    public void warmUp(List<RateLimiterDto> rateLimiterDtos) {
+        rateLimiterDtos.forEach(this::resolve);
+        join(commandExecutor.<Void, String>writeAllAsync(StringCodec.INSTANCE, RedisCommands.SCRIPT_LOAD, new SlotCallback<String, Void>() {
+            @Override
+            public void onSlotResult(String sha) {
+                // Every master returns the same digest.
+            }
+
+            @Override
+            public Void onFinish() {
+                return null;
+            }
+        }, script).toCompletableFuture());
+    }
+
+    /**
+     * Runs the script by its digest so that it is not sent on every call, and loads it with
+     * EVAL when Redis does not know it yet, e.g. after a restart or a failover.
+     */
+    CompletableFuture<List<Object>> eval(List<Object> keys, List<Object> params) {
+        String routingKey = (String) keys.get(0);
+        Object[] evalShaParams = new Object[2 + keys.size() + params.size()];
+        evalShaParams[0] = scriptSha;
+        evalShaParams[1] = keys.size();
+        for (int i = 0; i < keys.size(); i++) {
+            evalShaParams[2 + i] = keys.get(i);
+        }
+        for (int i = 0; i < params.size(); i++) {
+            evalShaParams[2 + keys.size() + i] = params.get(i);
+        }
+        CompletableFuture<List<Object>> evalSha = commandExecutor.<List<Object>, List<Object>>writeAsync(routingKey,
+                StringCodec.INSTANCE, EVALSHA_LIST, evalShaParams).toCompletableFuture();
+        return evalSha.handle((result, ex) -> {
+            if (ex == null) {
+                return CompletableFuture.completedFuture(result);
+            }
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause.getMessage() == null || !cause.getMessage().startsWith("NOSCRIPT")) {
+                CompletableFuture<List<Object>> failedEval = new CompletableFuture<>();
+                failedEval.completeExceptionally(cause);
+                return failedEval;
+            }
+            log.debug("Loading rate limiter script {}", scriptSha);
+            return commandExecutor.<List<Object>, List<Object>>evalWriteAsync(routingKey, StringCodec.INSTANCE,
+                    RedisCommands.EVAL_LIST, script, keys, params.toArray()).toCompletableFuture();
+        }).thenCompose(future -> future);
+    }
+
+    private static ConsumptionProbe[] toConsumptionProbes(List<Object> result) {
+        ConsumptionProbe[] consumptionProbes = new ConsumptionProbe[result.size() / 4];
+        for (int i = 0; i < consumptionProbes.length; i++) {
+            boolean consumed = (Long) result.get(i * 4) == 1L;
+            long remainingTokens = (Long) result.get(i * 4 + 1);
+            long nanosToWaitForRefill = toNanos((Long) result.get(i * 4 + 2));
+            long nanosToWaitForReset = toNanos((Long) result.get(i * 4 + 3));
+            consumptionProbes[i] = consumed
+                    ? ConsumptionProbe.consumed(remainingTokens, nanosToWaitForReset)
+                    : ConsumptionProbe.rejected(remainingTokens, nanosToWaitForRefill, nanosToWaitForReset);
+        }
+        return consumptionProbes;
+    }
+
+    private static long toNanos(long scriptNanos) {
+        return scriptNanos < 0 ? Long.MAX_VALUE : scriptNanos;
+    }
+
+    private LuaBucket resolve(RateLimiterDto rateLimiterDto) {
+        LuaBucket luaBucket = luaBuckets.getIfPresent(rateLimiterDto.getKey());
+        if (luaBucket != null && luaBucket.getRateLimiterDto().equals(rateLimiterDto)) {
+            return luaBucket;
+        }
+        // A changed configuration is picked up by the script on the next call, keeping the tokens as they are.
+        LuaBucket newLuaBucket = new LuaBucket(rateLimiterDto, bucketKey(rateLimiterDto), limitParams(rateLimiterDto));
+        luaBuckets.put(rateLimiterDto.getKey(), newLuaBucket);
+        return newLuaBucket;
+    }
+
+    /**
+     * Every algorithm has its own key space, so that switching the algorithm of a key starts from
+     * a fresh state instead of misreading the state of the previous one.
+     */
+    private static String bucketKey(RateLimiterDto rateLimiterDto) {
+        switch (rateLimiterDto.getAlgorithm()) {
+            case GCRA:
+                return RedisKeys.bucketKey("ratelimiter:gcra:", rateLimiterDto.getKey());
+            case SLIDING_WINDOW:
+                return RedisKeys.bucketKey("ratelimiter:sw:", rateLimiterDto.getKey());
+            default:
+                return RedisKeys.bucketKey("ratelimiter:", rateLimiterDto.getKey());
+        }
+    }
+
+    /**
+     * Parameters of the limit of the key in the form expected by the script.
+     */
+    private String[] limitParams(RateLimiterDto rateLimiterDto) {
+        String periodMicros = String.valueOf(Duration.of(1, rateLimiterDto.getTimeUnit()).toNanos() / 1000);
+        switch (rateLimiterDto.getAlgorithm()) {
+            case GCRA:
+                return new String[]{"G", String.valueOf(rateLimiterDto.getMaxLimit()), periodMicros};
+            case SLIDING_WINDOW:
+                return new String[]{"S", String.valueOf(rateLimiterDto.getMaxLimit()), periodMicros};
+            default:
+                Bandwidth[] bandwidths = bucketConfigService.getBucketConfiguration(rateLimiterDto).getBandwidths();
+                String[] limitParams = new String[2 + bandwidths.length * 5];
+                limitParams[0] = "T";
+                limitParams[1] = String.valueOf(bandwidths.length);
+                for (int i = 0; i < bandwidths.length; i++) {
+                    Bandwidth bandwidth = bandwidths[i];
+                    limitParams[2 + i * 5] = String.valueOf(bandwidth.getCapacity());
+                    limitParams[3 + i * 5] = String.valueOf(bandwidth.getInitialTokens());
+                    limitParams[4 + i * 5] = String.valueOf(bandwidth.getRefillTokens());
+                    limitParams[5 + i * 5] = String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toMicros(bandwidth.getRefillPeriodNanos())));
+                    limitParams[6 + i * 5] = bandwidth.isRefillIntervally() ? "0" : "1";
+                }
+                return limitParams;
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private static String sha1Hex(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class LuaBucket {
+        private final RateLimiterDto rateLimiterDto;
+        private final String bucketKey;
+        private final String[] limitParams;
+    }
+}
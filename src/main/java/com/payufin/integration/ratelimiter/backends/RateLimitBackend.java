@@ -0,0 +1,98 @@
+package com.payufin.integration.ratelimiter.backends;
+
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.ConsumptionProbe;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage of the buckets used by {@link com.payufin.integration.ratelimiter.services.RateLimiterService}.
+ * The backend is selected with the property rate-limiter.backend.
+ */
+
+public interface RateLimitBackend {
+
+    /**
+     * @param rateLimiterDto Rate Limiter Object
+     * @return bucket of the key
+     */
+    Bucket resolveBucket(RateLimiterDto rateLimiterDto);
+
+    /**
+     * Consumes the given number of tokens from the bucket of the key.
+     *
+     * @param rateLimiterDto Rate Limiter Object
+     * @param tokens         number of tokens to consume
+     * @return consumption probe
+     */
+    ConsumptionProbe tryConsume(RateLimiterDto rateLimiterDto, long tokens);
+
+    /**
+     * Non-blocking counterpart of {@link #tryConsume(RateLimiterDto, long)}.
+     *
+     * @param rateLimiterDto Rate Limiter Object
+     * @param tokens         number of tokens to consume
+     * @return future of the consumption probe
+     */
+    CompletableFuture<ConsumptionProbe> tryConsumeAsync(RateLimiterDto rateLimiterDto, long tokens);
+
+    /**
+     * Consumes the given number of tokens from the buckets of all the given keys, all or nothing:
+     * when any of the keys rejects, the tokens taken from the other buckets are given back.
+     *
+     * @param rateLimiterDtos Rate Limiter Objects to consume from
+     * @param tokens          number of tokens to consume from the bucket of every key, in the order of the keys
+     * @return consumption probes, in the order of the given Rate Limiter Objects
+     */
+    ConsumptionProbe[] tryConsumeAll(List<RateLimiterDto> rateLimiterDtos, long[] tokens);
+
+    /**
+     * Non-blocking counterpart of {@link #tryConsumeAll(List, long[])}.
+     *
+     * @param rateLimiterDtos Rate Limiter Objects to consume from
+     * @param tokens          number of tokens to consume from the bucket of every key, in the order of the keys
+     * @return future of the consumption probes, in the order of the given Rate Limiter Objects
+     */
+    CompletableFuture<ConsumptionProbe[]> tryConsumeAllAsync(List<RateLimiterDto> rateLimiterDtos, long[] tokens);
+
+    /**
+     * Gives back tokens consumed from the buckets of all the given keys, e.g. by a consumption
+     * whose result came too late to be used.
+     *
+     * @param rateLimiterDtos Rate Limiter Objects to give the tokens back to
+     * @param tokens          number of tokens to give back to the bucket of every key, in the order of the keys
+     * @return future which completes once the tokens are given back
+     */
+    default CompletableFuture<Void> refundAllAsync(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        for (int i = 0; i < rateLimiterDtos.size(); i++) {
+            resolveBucket(rateLimiterDtos.get(i)).addTokens(tokens[i]);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Drops whatever the backend keeps in memory for the given key.
+     *
+     * @param key Rate Limit key
+     */
+    void evict(String key);
+
+    /**
+     * Prepares whatever the backend keeps in memory for the given keys, without consuming from
+     * their buckets, so that the first calls of the keys do not pay for it.
+     *
+     * @param rateLimiterDtos Rate Limiter Objects to prepare
+     */
+    void warmUp(List<RateLimiterDto> rateLimiterDtos);
+
+    static boolean allConsumed(ConsumptionProbe[] consumptionProbes) {
+        for (ConsumptionProbe consumptionProbe : consumptionProbes) {
+            if (!consumptionProbe.isConsumed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,410 @@
+package com.payufin.integration.ratelimiter.backends;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.payufin.integration.ratelimiter.models.RateLimitAlgorithm;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import com.payufin.integration.ratelimiter.services.BucketConfigService;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.ConsumptionProbe;
+import io.github.bucket4j.TokensInheritanceStrategy;
+import io.github.bucket4j.distributed.AsyncBucketProxy;
+import io.github.bucket4j.distributed.proxy.ClientSideConfig;
+import io.github.bucket4j.distributed.proxy.RemoteAsyncBucketBuilder;
+import io.github.bucket4j.distributed.proxy.RemoteBucketBuilder;
+import io.github.bucket4j.distributed.proxy.optimization.DelayParameters;
+import io.github.bucket4j.distributed.proxy.optimization.Optimization;
+import io.github.bucket4j.distributed.proxy.optimization.Optimizations;
+import io.github.bucket4j.redis.redisson.cas.RedissonBasedProxyManager;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.command.CommandExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default backend which keeps the buckets in Redis through Bucket4j's {@link RedissonBasedProxyManager}.
+ * Keys limited with {@link RateLimitAlgorithm#GCRA} or {@link RateLimitAlgorithm#SLIDING_WINDOW},
+ * which Bucket4j does not implement, are consumed with the script of {@link LuaBucketBackend}.
+ * <p>
+ * Bucket4j expires the bucket state of all the keys of a proxy manager after the same time, so
+ * the buckets of a key are built by a proxy manager whose expiry is the time the bucket of the key
+ * takes to refill, capped by rate-limiter.bucket4j-redisKey.expiry. A per-second key then stays in
+ * Redis for a few seconds after its last call instead of the configured expiry.
+ */
+
+@Slf4j
+@Component("redisRateLimitBackend")
+@ConditionalOnProperty(name = "rate-limiter.backend", havingValue = "redis", matchIfMissing = true)
+public class RedisBucketBackend implements RateLimitBackend {
+
+    private final RedissonBasedProxyManager redissonBasedProxyManager;
+    private final BucketConfigService bucketConfigService;
+    private final Cache<String, ResolvedBucket> resolvedBuckets;
+    private final Cache<String, RateLimiterDto> checkedConfigurations;
+    private final LuaBucketBackend luaBucketBackend;
+    private final CommandExecutor commandExecutor;
+    private final long expiryMillis;
+    private final Map<Long, RedissonBasedProxyManager> proxyManagersByExpiry = new ConcurrentHashMap<>();
+
+    @Value("${rate-limiter.bucket4j-redisKey.perKeyExpiry:true}")
+    private boolean perKeyExpiry = true;
+
+    @Value("${rate-limiter.lease.timeoutMillis:1000}")
+    private long defaultLeaseTimeoutMillis = 1000;
+
+    @Autowired
+    public RedisBucketBackend(@Qualifier("rateLimiterProxyManager") RedissonBasedProxyManager redissonBasedProxyManager, BucketConfigService bucketConfigService,
+                              @Qualifier("rateLimiterCommandExecutor") CommandExecutor commandExecutor,
+                              @Value("${rate-limiter.bucket4j-redisKey.expiry}") int expiry,
+                              @Value("${rate-limiter.bucket4j-redisKey.expiryTimeUnit}") String expiryTimeUnit,
+                              @Value("${rate-limiter.bucket-cache.maxSize:100000}") long bucketCacheMaxSize,
+                              @Value("${rate-limiter.bucket-cache.expireAfterAccessSeconds:3600}") long bucketCacheExpireAfterAccessSeconds) throws IOException {
+        this.redissonBasedProxyManager = redissonBasedProxyManager;
+        this.bucketConfigService = bucketConfigService;
+        this.resolvedBuckets = Caffeine.newBuilder()
+                .maximumSize(bucketCacheMaxSize)
+                .expireAfterAccess(bucketCacheExpireAfterAccessSeconds, TimeUnit.SECONDS)
+                .build();
+        this.checkedConfigurations = Caffeine.newBuilder()
+                .maximumSize(bucketCacheMaxSize)
+                .build();
+        this.luaBucketBackend = new LuaBucketBackend(commandExecutor, bucketConfigService, expiry, expiryTimeUnit,
+                bucketCacheMaxSize, bucketCacheExpireAfterAccessSeconds);
+        this.commandExecutor = commandExecutor;
+        this.expiryMillis = Duration.of(expiry, ChronoUnit.valueOf(expiryTimeUnit.toUpperCase())).toMillis();
+    }
+
+    /**
+     * Returns the bucket proxy of the given key. Proxies are cached per key, kept through
+     * {@link #evict(String)}, and rebuilt only when the Rate Limiter Object of the key changes, in
+     * which case the new configuration is also applied to the bucket state present in Redis. A
+     * proxy built for a key missing from the local cache reads the configuration stored in Redis
+     * and replaces it when it differs from the current one, so that a change also reaches the
+     * buckets of keys this node did not hold. That read costs one more round trip, made once per
+     * key and Rate Limiter Object on this node, and made again only after the key is evicted. The
+     * returned proxy goes to Redis on every call also for a key with a lease, whose lease is held
+     * by the proxy of {@link #resolveAsyncBucket(RateLimiterDto)}.
+     *
+     * @param rateLimiterDto Rate Limiter Object
+     * @return bucket proxy of the key
+     */
+    @Override
+    public Bucket resolveBucket(RateLimiterDto rateLimiterDto) {
+        if (isScripted(rateLimiterDto)) {
+            return luaBucketBackend.resolveBucket(rateLimiterDto);
+        }
+        return resolve(rateLimiterDto).getBucket();
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #resolveBucket(RateLimiterDto)}, every operation of the
+     * returned proxy completes on the Redisson event loop instead of parking the calling thread.
+     *
+     * @param rateLimiterDto Rate Limiter Object
+     * @return async bucket proxy of the key
+     */
+    public AsyncBucketProxy resolveAsyncBucket(RateLimiterDto rateLimiterDto) {
+        return resolve(rateLimiterDto).getAsyncBucket();
+    }
+
+    /**
+     * A key with a lease is consumed through its async proxy, which holds the lease of the node,
+     * so that the synchronous and the non-blocking calls share it.
+     */
+    @Override
+    public ConsumptionProbe tryConsume(RateLimiterDto rateLimiterDto, long tokens) {
+        if (isScripted(rateLimiterDto)) {
+            return luaBucketBackend.tryConsume(rateLimiterDto, tokens);
+        }
+        if (rateLimiterDto.getLeaseSize() > 0) {
+            return join(resolveAsyncBucket(rateLimiterDto).tryConsumeAndReturnRemaining(tokens));
+        }
+        return resolveBucket(rateLimiterDto).tryConsumeAndReturnRemaining(tokens);
+    }
+
+    @Override
+    public CompletableFuture<ConsumptionProbe> tryConsumeAsync(RateLimiterDto rateLimiterDto, long tokens) {
+        if (isScripted(rateLimiterDto)) {
+            return luaBucketBackend.tryConsumeAsync(rateLimiterDto, tokens);
+        }
+        return resolveAsyncBucket(rateLimiterDto).tryConsumeAndReturnRemaining(tokens);
+    }
+
+    /**
+     * Consumption requests of all the keys are written to Redis together, so the check costs one
+     * round trip instead of one per key.
+     */
+    @Override
+    public ConsumptionProbe[] tryConsumeAll(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        return join(tryConsumeAllAsync(rateLimiterDtos, tokens));
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Bucket4j buckets and scripted limits of a call are consumed in parallel; when one of the two
+     * groups is rejected or fails, the tokens taken by the other one are given back.
+     */
+    @Override
+    public CompletableFuture<ConsumptionProbe[]> tryConsumeAllAsync(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        int size = rateLimiterDtos.size();
+        List<RateLimiterDto> bucketDtos = new ArrayList<>(size);
+        List<RateLimiterDto> scriptedDtos = new ArrayList<>(size);
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            RateLimiterDto rateLimiterDto = rateLimiterDtos.get(i);
+            List<RateLimiterDto> group = isScripted(rateLimiterDto) ? scriptedDtos : bucketDtos;
+            positions[i] = group.size();
+            group.add(rateLimiterDto);
+        }
+        if (scriptedDtos.isEmpty()) {
+            return tryConsumeAllBucketsAsync(bucketDtos, tokens);
+        } else if (bucketDtos.isEmpty()) {
+            return luaBucketBackend.tryConsumeAllAsync(scriptedDtos, tokens);
+        }
+
+        long[] bucketTokens = new long[bucketDtos.size()];
+        long[] scriptedTokens = new long[scriptedDtos.size()];
+        for (int i = 0; i < size; i++) {
+            if (isScripted(rateLimiterDtos.get(i))) {
+                scriptedTokens[positions[i]] = tokens[i];
+            } else {
+                bucketTokens[positions[i]] = tokens[i];
+            }
+        }
+        CompletableFuture<ConsumptionProbe[]> bucketConsumption = tryConsumeAllBucketsAsync(bucketDtos, bucketTokens);
+        CompletableFuture<ConsumptionProbe[]> scriptedConsumption = luaBucketBackend.tryConsumeAllAsync(scriptedDtos, scriptedTokens);
+        return CompletableFuture.allOf(bucketConsumption, scriptedConsumption).handle((ignored, ex) -> {
+            ConsumptionProbe[] bucketProbes = bucketConsumption.isCompletedExceptionally() ? null : bucketConsumption.join();
+            ConsumptionProbe[] scriptedProbes = scriptedConsumption.isCompletedExceptionally() ? null : scriptedConsumption.join();
+            boolean bucketsConsumed = bucketProbes != null && RateLimitBackend.allConsumed(bucketProbes);
+            boolean scriptedConsumed = scriptedProbes != null && RateLimitBackend.allConsumed(scriptedProbes);
+            if (bucketsConsumed && !scriptedConsumed) {
+                for (int i = 0; i < bucketDtos.size(); i++) {
+                    refund(resolveAsyncBucket(bucketDtos.get(i)), bucketTokens[i], bucketDtos.get(i).getKey());
+                }
+            } else if (!bucketsConsumed && scriptedConsumed) {
+                luaBucketBackend.refundAllAsync(scriptedDtos, scriptedTokens).whenComplete((refunded, refundEx) -> {
+                    if (refundEx != null) {
+                        log.warn("Unable to give back tokens to {} limits", scriptedDtos.size(), refundEx);
+                    }
+                });
+            }
+            if (ex != null) {
+                throw asCompletionException(ex);
+            }
+            ConsumptionProbe[] consumptionProbes = new ConsumptionProbe[size];
+            for (int i = 0; i < size; i++) {
+                consumptionProbes[i] = isScripted(rateLimiterDtos.get(i)) ? scriptedProbes[positions[i]] : bucketProbes[positions[i]];
+            }
+            return consumptionProbes;
+        });
+    }
+
+    /**
+     * Consumes the buckets in parallel. When any of them is rejected or fails, the tokens taken
+     * from the others are given back before the result or the failure is returned.
+     */
+    private CompletableFuture<ConsumptionProbe[]> tryConsumeAllBucketsAsync(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        int size = rateLimiterDtos.size();
+        AsyncBucketProxy[] asyncBuckets = new AsyncBucketProxy[size];
+        ConsumptionProbe[] consumptionProbes = new ConsumptionProbe[size];
+        CompletableFuture<?>[] consumptions = new CompletableFuture<?>[size];
+        for (int i = 0; i < size; i++) {
+            int index = i;
+            asyncBuckets[i] = resolveAsyncBucket(rateLimiterDtos.get(i));
+            consumptions[i] = asyncBuckets[i].tryConsumeAndReturnRemaining(tokens[i])
+                    .thenAccept(consumptionProbe -> consumptionProbes[index] = consumptionProbe);
+        }
+        // allOf completes once every consumption has completed, also when some of them failed.
+        return CompletableFuture.allOf(consumptions).handle((ignored, ex) -> {
+            if (ex != null || !RateLimitBackend.allConsumed(consumptionProbes)) {
+                for (int i = 0; i < size; i++) {
+                    if (consumptionProbes[i] != null && consumptionProbes[i].isConsumed()) {
+                        refund(asyncBuckets[i], tokens[i], rateLimiterDtos.get(i).getKey());
+                    }
+                }
+            }
+            if (ex != null) {
+                throw asCompletionException(ex);
+            }
+            return consumptionProbes;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> refundAllAsync(List<RateLimiterDto> rateLimiterDtos, long[] tokens) {
+        List<CompletableFuture<?>> refunds = new ArrayList<>(rateLimiterDtos.size());
+        List<RateLimiterDto> scriptedDtos = new ArrayList<>();
+        List<Long> scriptedTokens = new ArrayList<>();
+        for (int i = 0; i < rateLimiterDtos.size(); i++) {
+            RateLimiterDto rateLimiterDto = rateLimiterDtos.get(i);
+            if (isScripted(rateLimiterDto)) {
+                scriptedDtos.add(rateLimiterDto);
+                scriptedTokens.add(tokens[i]);
+            } else {
+                refunds.add(resolveAsyncBucket(rateLimiterDto).addTokens(tokens[i]));
+            }
+        }
+        if (!scriptedDtos.isEmpty()) {
+            refunds.add(luaBucketBackend.refundAllAsync(scriptedDtos, scriptedTokens.stream().mapToLong(Long::longValue).toArray()));
+        }
+        return CompletableFuture.allOf(refunds.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private static CompletionException asCompletionException(Throwable ex) {
+        return ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+    }
+
+    /**
+     * Keeps the bucket proxy of the key, which remembers the Rate Limiter Object it was built
+     * with, so that the next call with a changed Rate Limiter Object replaces the configuration of
+     * the bucket in Redis instead of building the proxy as if this node never held the key. The
+     * configuration stored in Redis is checked again the next time the proxy is built.
+     */
+    @Override
+    public void evict(String key) {
+        checkedConfigurations.invalidate(key);
+        luaBucketBackend.evict(key);
+    }
+
+    @Override
+    public void warmUp(List<RateLimiterDto> rateLimiterDtos) {
+        List<RateLimiterDto> scriptedDtos = new ArrayList<>();
+        for (RateLimiterDto rateLimiterDto : rateLimiterDtos) {
+            if (isScripted(rateLimiterDto)) {
+                scriptedDtos.add(rateLimiterDto);
+            } else {
+                resolve(rateLimiterDto);
+            }
+        }
+        if (!scriptedDtos.isEmpty()) {
+            luaBucketBackend.warmUp(scriptedDtos);
+        }
+    }
+
+    private static boolean isScripted(RateLimiterDto rateLimiterDto) {
+        return rateLimiterDto.getAlgorithm() != RateLimitAlgorithm.TOKEN_BUCKET;
+    }
+
+    private static void refund(AsyncBucketProxy asyncBucket, long tokens, String key) {
+        asyncBucket.addTokens(tokens).whenComplete((ignored, ex) -> {
+            if (ex != null) {
+                log.warn("Unable to give back {} tokens to bucket of key {}", tokens, key, ex);
+            }
+        });
+    }
+
+    private ResolvedBucket resolve(RateLimiterDto rateLimiterDto) {
+        ResolvedBucket resolvedBucket = resolvedBuckets.getIfPresent(rateLimiterDto.getKey());
+        if (resolvedBucket != null && resolvedBucket.getRateLimiterDto().equals(rateLimiterDto)) {
+            return resolvedBucket;
+        }
+
+        String bucketKey = RedisKeys.bucketKey("bucket4j:", rateLimiterDto.getKey());
+        BucketConfiguration bucketConfiguration = bucketConfigService.getBucketConfiguration(rateLimiterDto);
+        RedissonBasedProxyManager proxyManager = proxyManagerOf(bucketConfiguration);
+        RemoteBucketBuilder<String> bucketBuilder = proxyManager.builder();
+        RemoteAsyncBucketBuilder<String> asyncBucketBuilder = proxyManager.asAsync().builder();
+        if (rateLimiterDto.getLeaseSize() > 0) {
+            // Only one proxy of the key leases, otherwise a node would hold a lease per proxy.
+            asyncBucketBuilder.withOptimization(leaseOptimization(rateLimiterDto));
+        }
+        // Does not always create a new bucket, but instead returns the existing one if it exists.
+        Bucket bucket = bucketBuilder.build(bucketKey, () -> bucketConfiguration);
+        AsyncBucketProxy asyncBucket = asyncBucketBuilder.build(bucketKey, bucketConfiguration);
+        if (resolvedBucket != null) {
+            replaceConfiguration(asyncBucket, rateLimiterDto, bucketConfiguration, bucketKey);
+        } else if (!rateLimiterDto.equals(checkedConfigurations.getIfPresent(rateLimiterDto.getKey()))) {
+            // The bucket may have been created with another configuration before this node, or
+            // before the proxy of the key was dropped from the local cache.
+            proxyManager.asAsync().getProxyConfiguration(bucketKey).whenComplete((storedConfiguration, ex) -> {
+                if (ex != null) {
+                    log.warn("Unable to read configuration of bucket {}", bucketKey, ex);
+                } else if (storedConfiguration.isPresent() && !storedConfiguration.get().equals(bucketConfiguration)) {
+                    replaceConfiguration(asyncBucket, rateLimiterDto, bucketConfiguration, bucketKey);
+                } else {
+                    checkedConfigurations.put(rateLimiterDto.getKey(), rateLimiterDto);
+                }
+            });
+        }
+        ResolvedBucket newResolvedBucket = new ResolvedBucket(rateLimiterDto, bucket, asyncBucket);
+        resolvedBuckets.put(rateLimiterDto.getKey(), newResolvedBucket);
+        return newResolvedBucket;
+    }
+
+    private void replaceConfiguration(AsyncBucketProxy asyncBucket, RateLimiterDto rateLimiterDto, BucketConfiguration bucketConfiguration,
+                                      String bucketKey) {
+        asyncBucket.replaceConfiguration(bucketConfiguration, TokensInheritanceStrategy.AS_IS)
+                .whenComplete((ignored, ex) -> {
+                    if (ex != null) {
+                        log.warn("Unable to replace configuration of bucket {}", bucketKey, ex);
+                    } else {
+                        checkedConfigurations.put(rateLimiterDto.getKey(), rateLimiterDto);
+                    }
+                });
+    }
+
+    /**
+     * Proxy manager expiring the bucket state once the bucket is full again. The expiry is rounded
+     * up to seconds, which bounds the number of proxy managers.
+     */
+    private RedissonBasedProxyManager proxyManagerOf(BucketConfiguration bucketConfiguration) {
+        if (!perKeyExpiry) {
+            return redissonBasedProxyManager;
+        }
+        long fullRefillSeconds = (bucketConfigService.getFullRefillDuration(bucketConfiguration).toMillis() + 999) / 1000;
+        long keyExpiryMillis = Math.min(expiryMillis, TimeUnit.SECONDS.toMillis(Math.max(1, fullRefillSeconds)));
+        if (keyExpiryMillis == expiryMillis) {
+            return redissonBasedProxyManager;
+        }
+        return proxyManagersByExpiry.computeIfAbsent(keyExpiryMillis, millis ->
+                new CasRetryCountingProxyManager(commandExecutor, ClientSideConfig.getDefault(), Duration.ofMillis(millis)));
+    }
+
+    /**
+     * Lets the proxy serve up to {@link RateLimiterDto#getLeaseSize()} tokens from its local copy
+     * of the bucket and synchronize with Redis in batches. The prediction of the consumption of
+     * other nodes keeps the local copy close to the shared bucket between synchronizations. The
+     * synchronization is made by the call which reaches the lease size or timeout, without
+     * blocking a thread on the async proxy; Bucket4j does not renew a lease in the background.
+     */
+    private Optimization leaseOptimization(RateLimiterDto rateLimiterDto) {
+        long leaseTimeoutMillis = rateLimiterDto.getLeaseTimeoutMillis() > 0 ? rateLimiterDto.getLeaseTimeoutMillis() : defaultLeaseTimeoutMillis;
+        return Optimizations.predicting(new DelayParameters(rateLimiterDto.getLeaseSize(), Duration.ofMillis(leaseTimeoutMillis)));
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class ResolvedBucket {
+        private final RateLimiterDto rateLimiterDto;
+        private final Bucket bucket;
+        private final AsyncBucketProxy asyncBucket;
+    }
+}
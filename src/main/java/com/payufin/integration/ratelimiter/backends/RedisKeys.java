@@ -0,0 +1,30 @@
+package com.payufin.integration.ratelimiter.backends;
+
+/**
+ * Builds the Redis keys of the buckets. The Rate Limit key is wrapped in a hash tag, so that
+ * Redis Cluster places all the state of a key on one slot whatever the prefix. A Rate Limit key
+ * which already carries a hash tag, e.g. "{user-1}:login" and "{user-1}:otp", is kept as it is,
+ * which lets the keys checked together by one call share a slot.
+ */
+
+final class RedisKeys {
+
+    private RedisKeys() {
+    }
+
+    static String bucketKey(String prefix, String key) {
+        return hasHashTag(key) ? prefix + key : prefix + "{" + key + "}";
+    }
+
+    /**
+     * Same rule as Redis Cluster: the first "{" followed by a "}" with something in between.
+     */
+    private static boolean hasHashTag(String key) {
+        int start = key.indexOf('{');
+        if (start < 0) {
+            return false;
+        }
+        int end = key.indexOf('}', start + 1);
+        return end > start + 1;
+    }
+}
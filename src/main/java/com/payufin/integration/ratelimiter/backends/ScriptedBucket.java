@@ -0,0 +1,335 @@
+package com.payufin.integration.ratelimiter.backends;
+
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import io.github.bucket4j.BlockingBucket;
+import io.github.bucket4j.BlockingStrategy;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.BucketExceptions;
+import io.github.bucket4j.BucketListener;
+import io.github.bucket4j.ConsumptionProbe;
+import io.github.bucket4j.EstimationProbe;
+import io.github.bucket4j.SchedulingBucket;
+import io.github.bucket4j.TokensInheritanceStrategy;
+import io.github.bucket4j.UninterruptibleBlockingStrategy;
+import io.github.bucket4j.VerboseBucket;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Bucket} view of a limit kept by the script of {@link LuaBucketBackend}, so that the
+ * limits of the redis-lua backend and the GCRA and sliding window limits of the default backend
+ * are read and consumed through the same object as the Bucket4j buckets. Every operation is one
+ * run of the script on the state shared with the rate limited calls.
+ * <p>
+ * Tokens taken by {@link #consumeIgnoringRateLimits(long)} put the limit below zero, and tokens
+ * forced by {@link #forceAddTokens(long)} put a token bucket above its capacity. The GCRA and
+ * sliding window limits keep no tokens above a full limit, so forcing tokens into them fills them
+ * up to the limit. The blocking and scheduling views do not reserve tokens like the Bucket4j ones:
+ * they try again once the refill the script reports is due, so a waiting call can be overtaken by
+ * other calls. The configuration is taken from the Rate Limiter Object on every call, so it is
+ * changed by changing that object, and there is no Bucket4j state to report verbose results from:
+ * {@link #replaceConfiguration(BucketConfiguration, TokensInheritanceStrategy)} and
+ * {@link #asVerbose()} throw {@link UnsupportedOperationException}.
+ */
+
+final class ScriptedBucket implements Bucket {
+
+    /**
+     * Tries of {@link #tryConsumeAsMuchAsPossible(long)} when other calls take the available
+     * tokens between the read and the consumption.
+     */
+    private static final int MAX_CONSUME_AS_MUCH_AS_POSSIBLE_TRIES = 3;
+
+    private final LuaBucketBackend luaBucketBackend;
+    private final RateLimiterDto rateLimiterDto;
+    private final BucketListener listener;
+
+    ScriptedBucket(LuaBucketBackend luaBucketBackend, RateLimiterDto rateLimiterDto) {
+        this(luaBucketBackend, rateLimiterDto, BucketListener.NOPE);
+    }
+
+    private ScriptedBucket(LuaBucketBackend luaBucketBackend, RateLimiterDto rateLimiterDto, BucketListener listener) {
+        this.luaBucketBackend = luaBucketBackend;
+        this.rateLimiterDto = rateLimiterDto;
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean tryConsume(long numTokens) {
+        return tryConsumeAndReturnRemaining(numTokens).isConsumed();
+    }
+
+    @Override
+    public ConsumptionProbe tryConsumeAndReturnRemaining(long numTokens) {
+        if (numTokens <= 0) {
+            throw BucketExceptions.nonPositiveTokensToConsume(numTokens);
+        }
+        return notify(luaBucketBackend.tryConsume(rateLimiterDto, numTokens), numTokens);
+    }
+
+    /**
+     * The remaining tokens of the returned probe are the tokens available before the consumption.
+     */
+    @Override
+    public EstimationProbe estimateAbilityToConsume(long numTokens) {
+        if (numTokens <= 0) {
+            throw BucketExceptions.nonPositiveTokensToConsume(numTokens);
+        }
+        ConsumptionProbe consumptionProbe = luaBucketBackend.peek(rateLimiterDto, numTokens);
+        return consumptionProbe.isConsumed()
+                ? EstimationProbe.canBeConsumed(consumptionProbe.getRemainingTokens() + numTokens)
+                : EstimationProbe.canNotBeConsumed(consumptionProbe.getRemainingTokens(), consumptionProbe.getNanosToWaitForRefill());
+    }
+
+    @Override
+    public long getAvailableTokens() {
+        return luaBucketBackend.peek(rateLimiterDto, 0).getRemainingTokens();
+    }
+
+    @Override
+    public long tryConsumeAsMuchAsPossible() {
+        return tryConsumeAsMuchAsPossible(Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the available tokens and consumes them. The script consumes all or nothing, so when
+     * other calls take some of them in between the read is tried again a few times.
+     */
+    @Override
+    public long tryConsumeAsMuchAsPossible(long limit) {
+        if (limit <= 0) {
+            throw BucketExceptions.nonPositiveTokensToConsume(limit);
+        }
+        for (int i = 0; i < MAX_CONSUME_AS_MUCH_AS_POSSIBLE_TRIES; i++) {
+            long tokens = Math.min(getAvailableTokens(), limit);
+            if (tokens <= 0) {
+                return 0;
+            }
+            if (luaBucketBackend.tryConsume(rateLimiterDto, tokens).isConsumed()) {
+                listener.onConsumed(tokens);
+                return tokens;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gives the tokens back to the limit, up to its capacity.
+     */
+    @Override
+    public void addTokens(long tokensToAdd) {
+        if (tokensToAdd <= 0) {
+            throw new IllegalArgumentException(tokensToAdd + " is wrong value for tokensToAdd, because tokens should be positive");
+        }
+        luaBucketBackend.tryConsume(rateLimiterDto, -tokensToAdd);
+    }
+
+    /**
+     * Fills the limit up to its capacity by deleting its state.
+     */
+    @Override
+    public void reset() {
+        luaBucketBackend.reset(rateLimiterDto);
+    }
+
+    /**
+     * @return nanos to wait until the limit is no longer below zero
+     */
+    @Override
+    public long consumeIgnoringRateLimits(long tokens) {
+        if (tokens <= 0) {
+            throw BucketExceptions.nonPositiveTokensToConsume(tokens);
+        }
+        long penaltyNanos = luaBucketBackend.forceConsume(rateLimiterDto, tokens);
+        listener.onConsumed(tokens);
+        return penaltyNanos;
+    }
+
+    @Override
+    public void forceAddTokens(long tokensToAdd) {
+        if (tokensToAdd <= 0) {
+            throw new IllegalArgumentException(tokensToAdd + " is wrong value for tokensToAdd, because tokens should be positive");
+        }
+        luaBucketBackend.forceConsume(rateLimiterDto, -tokensToAdd);
+    }
+
+    @Override
+    public void replaceConfiguration(BucketConfiguration newConfiguration, TokensInheritanceStrategy tokensInheritanceStrategy) {
+        throw unsupported("replacing the configuration, which is taken from the Rate Limiter Object,");
+    }
+
+    @Override
+    public BlockingBucket asBlocking() {
+        return new ScriptedBlockingBucket();
+    }
+
+    @Override
+    public SchedulingBucket asScheduler() {
+        return new ScriptedSchedulingBucket();
+    }
+
+    @Override
+    public VerboseBucket asVerbose() {
+        throw unsupported("reading the state of the bucket");
+    }
+
+    @Override
+    public Bucket toListenable(BucketListener listener) {
+        if (listener == null) {
+            throw BucketExceptions.nullListener();
+        }
+        return new ScriptedBucket(luaBucketBackend, rateLimiterDto, listener);
+    }
+
+    private ConsumptionProbe notify(ConsumptionProbe consumptionProbe, long numTokens) {
+        if (consumptionProbe.isConsumed()) {
+            listener.onConsumed(numTokens);
+        } else {
+            listener.onRejected(numTokens);
+        }
+        return consumptionProbe;
+    }
+
+    /**
+     * Nanos to wait before trying to consume again, or a negative value when the refill the
+     * rejection reports is not due within the remaining nanos.
+     */
+    private static long nanosToRetry(ConsumptionProbe consumptionProbe, long remainingNanos) {
+        long nanosToWaitForRefill = consumptionProbe.getNanosToWaitForRefill();
+        if (nanosToWaitForRefill == Long.MAX_VALUE || nanosToWaitForRefill > remainingNanos) {
+            return -1;
+        }
+        return Math.max(nanosToWaitForRefill, 1);
+    }
+
+    private static long deadline(long maxWaitNanos) {
+        if (maxWaitNanos <= 0) {
+            throw BucketExceptions.nonPositiveNanosToWait(maxWaitNanos);
+        }
+        return maxWaitNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + maxWaitNanos;
+    }
+
+    private static long remainingNanos(long deadline) {
+        return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+
+    private UnsupportedOperationException unsupported(String operation) {
+        return new UnsupportedOperationException(operation + " is not supported by the " + rateLimiterDto.getAlgorithm()
+                + " limit of key " + rateLimiterDto.getKey() + " kept by the rate limit script");
+    }
+
+    /**
+     * Parks the calling thread until the refill the script reports is due and tries again.
+     */
+    private class ScriptedBlockingBucket implements BlockingBucket {
+
+        @Override
+        public boolean tryConsume(long numTokens, long maxWaitNanos, BlockingStrategy blockingStrategy) throws InterruptedException {
+            if (numTokens <= 0) {
+                throw BucketExceptions.nonPositiveTokensToConsume(numTokens);
+            }
+            long deadline = deadline(maxWaitNanos);
+            while (true) {
+                ConsumptionProbe consumptionProbe = luaBucketBackend.tryConsume(rateLimiterDto, numTokens);
+                if (consumptionProbe.isConsumed()) {
+                    listener.onConsumed(numTokens);
+                    return true;
+                }
+                long nanosToRetry = nanosToRetry(consumptionProbe, remainingNanos(deadline));
+                if (nanosToRetry < 0) {
+                    listener.onRejected(numTokens);
+                    return false;
+                }
+                listener.onParked(nanosToRetry);
+                try {
+                    blockingStrategy.park(nanosToRetry);
+                } catch (InterruptedException ex) {
+                    listener.onInterrupted(ex);
+                    throw ex;
+                }
+            }
+        }
+
+        @Override
+        public boolean tryConsumeUninterruptibly(long numTokens, long maxWaitNanos, UninterruptibleBlockingStrategy blockingStrategy) {
+            try {
+                return tryConsume(numTokens, maxWaitNanos, blockingStrategy::parkUninterruptibly);
+            } catch (InterruptedException ex) {
+                // Not thrown by parkUninterruptibly.
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public void consume(long numTokens, BlockingStrategy blockingStrategy) throws InterruptedException {
+            if (!tryConsume(numTokens, Long.MAX_VALUE, blockingStrategy)) {
+                throw BucketExceptions.reservationOverflow();
+            }
+        }
+
+        @Override
+        public void consumeUninterruptibly(long numTokens, UninterruptibleBlockingStrategy blockingStrategy) {
+            if (!tryConsumeUninterruptibly(numTokens, Long.MAX_VALUE, blockingStrategy)) {
+                throw BucketExceptions.reservationOverflow();
+            }
+        }
+    }
+
+    /**
+     * Tries again on the given scheduler once the refill the script reports is due.
+     */
+    private class ScriptedSchedulingBucket implements SchedulingBucket {
+
+        @Override
+        public CompletableFuture<Boolean> tryConsume(long numTokens, long maxWaitNanos, ScheduledExecutorService scheduler) {
+            if (numTokens <= 0) {
+                throw BucketExceptions.nonPositiveTokensToConsume(numTokens);
+            }
+            if (scheduler == null) {
+                throw BucketExceptions.nullScheduler();
+            }
+            CompletableFuture<Boolean> consumed = new CompletableFuture<>();
+            tryConsume(numTokens, deadline(maxWaitNanos), scheduler, consumed);
+            return consumed;
+        }
+
+        @Override
+        public CompletableFuture<Void> consume(long numTokens, ScheduledExecutorService scheduler) {
+            return tryConsume(numTokens, Long.MAX_VALUE, scheduler).thenApply(consumed -> {
+                if (!consumed) {
+                    throw BucketExceptions.reservationOverflow();
+                }
+                return null;
+            });
+        }
+
+        private void tryConsume(long numTokens, long deadline, ScheduledExecutorService scheduler, CompletableFuture<Boolean> consumed) {
+            luaBucketBackend.tryConsumeAsync(rateLimiterDto, numTokens).whenComplete((consumptionProbe, ex) -> {
+                if (ex != null) {
+                    consumed.completeExceptionally(ex);
+                    return;
+                }
+                if (consumptionProbe.isConsumed()) {
+                    listener.onConsumed(numTokens);
+                    consumed.complete(true);
+                    return;
+                }
+                long nanosToRetry = nanosToRetry(consumptionProbe, remainingNanos(deadline));
+                if (nanosToRetry < 0) {
+                    listener.onRejected(numTokens);
+                    consumed.complete(false);
+                    return;
+                }
+                listener.onDelayed(nanosToRetry);
+                try {
+                    scheduler.schedule(() -> tryConsume(numTokens, deadline, scheduler, consumed), nanosToRetry, TimeUnit.NANOSECONDS);
+                } catch (RuntimeException scheduleException) {
+                    consumed.completeExceptionally(scheduleException);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.payufin.integration.ratelimiter.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings of the adaptive concurrency limit of the methods annotated in CONCURRENCY mode.
+ */
+
+@Configuration
+@ConfigurationProperties(prefix = "rate-limiter.concurrency")
+@Data
+public class RateLimitConcurrencyProperties {
+
+    /**
+     * Concurrency limit of a method before any call completed.
+     */
+    private int initialLimit = 20;
+
+    private int minLimit = 1;
+
+    private int maxLimit = 1000;
+
+    /**
+     * Factor applied to the limit when the calls get slow.
+     */
+    private double backoffRatio = 0.9;
+
+    /**
+     * A call is slow when it takes longer than this many times the average latency of the method.
+     */
+    private double latencyTolerance = 2.0;
+
+    /**
+     * Number of calls the average latency of the method is smoothed over.
+     */
+    private int latencyWindow = 500;
+}
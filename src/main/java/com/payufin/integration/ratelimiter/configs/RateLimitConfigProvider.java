@@ -1,9 +1,28 @@
 package com.payufin.integration.ratelimiter.configs;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.payufin.integration.ratelimiter.aspects.MethodAspect;
 import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Author - lakshya.jain <br>
  * Date - 09/10/2022
@@ -19,6 +38,26 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public abstract class RateLimitConfigProvider<T> {
 
+    @Value("${rate-limiter.config-cache.enabled:true}")
+    private boolean configCacheEnabled = true;
+
+    @Value("${rate-limiter.config-cache.maxSize:10000}")
+    private long configCacheMaxSize = 10000;
+
+    @Value("${rate-limiter.config-cache.ttlSeconds:300}")
+    private long configCacheTtlSeconds = 300;
+
+    @Value("${rate-limiter.config-cache.negativeTtlSeconds:30}")
+    private long configCacheNegativeTtlSeconds = 30;
+
+    @Value("${rate-limiter.config-cache.refreshAheadSeconds:60}")
+    private long configCacheRefreshAheadSeconds = 60;
+
+    @Value("${rate-limiter.config-cache.refreshThreads:2}")
+    private int configCacheRefreshThreads = 2;
+
+    private volatile LoadingCache<String, Optional<RateLimiterDto>> localConfigCache;
+
     /**
      * User needs to implement this function in order to get the Rate Limiter Object
      * from their Cache.
@@ -80,6 +119,69 @@ public abstract class RateLimitConfigProvider<T> {
      */
     public abstract String deleteRateLimiterEntityFromSource(String key);
 
+    /**
+     * Gets the Rate Limiter Objects of the given keys from the source. It reads the keys one by
+     * one by default; override it to read them all with a single query to the source.
+     *
+     * @param keys Rate Limit keys
+     * @return Rate Limiter Entities found in the source
+     */
+    public List<T> getRateLimiterEntitiesFromSource(Collection<String> keys) {
+        List<T> rateLimiterEntities = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            T rateLimiterEntity = getRateLimiterEntityFromSource(key);
+            if (rateLimiterEntity != null) {
+                rateLimiterEntities.add(rateLimiterEntity);
+            }
+        }
+        return rateLimiterEntities;
+    }
+
+    /**
+     * Inserts the given Rate Limiter Objects to the source. It inserts them one by one by
+     * default; override it to insert them all with a single query to the source.
+     *
+     * @param rateLimitEntities Rate Entities
+     * @return Rate Limiter Entities from source
+     */
+    public List<T> insertRateLimiterEntitiesToSource(List<T> rateLimitEntities) {
+        List<T> insertedRateLimiterEntities = new ArrayList<>(rateLimitEntities.size());
+        for (T rateLimitEntity : rateLimitEntities) {
+            insertedRateLimiterEntities.add(insertRateLimiterEntityToSource(rateLimitEntity));
+        }
+        return insertedRateLimiterEntities;
+    }
+
+    /**
+     * Updates the given Rate Limiter Objects to the source. It updates them one by one by
+     * default; override it to update them all with a single query to the source.
+     *
+     * @param rateLimitEntities Rate Entities
+     * @return Rate Limiter Entities from source
+     */
+    public List<T> updateRateLimiterEntitiesToSource(List<T> rateLimitEntities) {
+        List<T> updatedRateLimiterEntities = new ArrayList<>(rateLimitEntities.size());
+        for (T rateLimitEntity : rateLimitEntities) {
+            updatedRateLimiterEntities.add(updateRateLimiterEntityToSource(rateLimitEntity));
+        }
+        return updatedRateLimiterEntities;
+    }
+
+    /**
+     * Deletes the Rate Limiter Objects of the given keys from the source. It deletes them one by
+     * one by default; override it to delete them all with a single query to the source.
+     *
+     * @param keys Rate Limit keys
+     * @return result of the deletion of every key, in the order of the keys
+     */
+    public List<String> deleteRateLimiterEntitiesFromSource(Collection<String> keys) {
+        List<String> deleted = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            deleted.add(deleteRateLimiterEntityFromSource(key));
+        }
+        return deleted;
+    }
+
     /**
      * User needs to implement this function in order to transform their source Rate Limiter
      * Object to Rate Limiter Object.
@@ -100,25 +202,209 @@ public abstract class RateLimitConfigProvider<T> {
 
     /**
      * This is generic function which we are using in {@link MethodAspect} class to get
-     * Rate Limiter Object.
+     * Rate Limiter Object. Lookups are served from a bounded local cache which also remembers
+     * keys missing from the source, refreshes entries ahead of their expiry and runs a single
+     * load per key at a time.
      *
      * @param key Rate Limiter key
      * @return Rate Limiter Object
      */
     public final RateLimiterDto getRateLimiterDto(String key) {
-        RateLimiterDto rateLimiterDto;
+        if (!configCacheEnabled) {
+            return loadRateLimiterDtoOrNull(key);
+        }
+        try {
+            return getLocalConfigCache().get(key).orElse(null);
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Bulk counterpart of {@link #getRateLimiterDto(String)}. The keys missing from the local
+     * cache are read together, from the user cache and then with
+     * {@link #getRateLimiterEntitiesFromSource(Collection)}, and kept in the local cache.
+     *
+     * @param keys Rate Limiter keys
+     * @return Rate Limiter Objects by key, without the keys missing from the source
+     */
+    public final Map<String, RateLimiterDto> getRateLimiterDtos(Collection<String> keys) {
+        Map<String, Optional<RateLimiterDto>> rateLimiterDtos;
+        try {
+            rateLimiterDtos = configCacheEnabled ? getLocalConfigCache().getAll(keys) : loadRateLimiterDtos(keys);
+        } catch (RuntimeException ex) {
+            return new HashMap<>();
+        }
+        Map<String, RateLimiterDto> presentRateLimiterDtos = new HashMap<>();
+        rateLimiterDtos.forEach((key, rateLimiterDto) -> rateLimiterDto.ifPresent(dto -> presentRateLimiterDtos.put(key, dto)));
+        return presentRateLimiterDtos;
+    }
+
+    /**
+     * Removes the given key from the local Rate Limiter Object cache, so that the next lookup
+     * reads it again from the user cache or the source.
+     *
+     * @param key Rate Limiter key
+     */
+    public final void evictRateLimiterDto(String key) {
+        if (localConfigCache != null) {
+            localConfigCache.invalidate(key);
+        }
+    }
+
+    /**
+     * Removes all the keys from the local Rate Limiter Object cache.
+     */
+    public final void evictAllRateLimiterDtos() {
+        if (localConfigCache != null) {
+            localConfigCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Local Rate Limiter Object cache of this provider, with its statistics recorded. It is used
+     * to expose the hit ratio of the cache.
+     *
+     * @return local cache, null when the cache is disabled
+     */
+    public final Cache<String, ?> getConfigCache() {
+        return configCacheEnabled ? getLocalConfigCache() : null;
+    }
+
+    private RateLimiterDto loadRateLimiterDtoOrNull(String key) {
+        try {
+            return loadRateLimiterDto(key).orElse(null);
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the Rate Limiter Object from the user cache and falls back to the source.
+     * Exceptions of the source are propagated so that they are not cached as a missing key.
+     */
+    private Optional<RateLimiterDto> loadRateLimiterDto(String key) {
         T rateLimiterEntityFromCache = getRateLimiterEntityFromCache(key);
-        rateLimiterDto = rateLimiterEntityFromCache != null ? transformRateLimiterEntityToRateLimiterDto(rateLimiterEntityFromCache) : null;
+        RateLimiterDto rateLimiterDto = rateLimiterEntityFromCache != null ? transformRateLimiterEntityToRateLimiterDto(rateLimiterEntityFromCache) : null;
         if (rateLimiterDto == null) {
-            T rateLimiterEntityFromSource;
-            try {
-                rateLimiterEntityFromSource = getRateLimiterEntityFromSource(key);
-            } catch (Exception ex) {
-                return null;
+            T rateLimiterEntityFromSource = getRateLimiterEntityFromSource(key);
+            rateLimiterDto = rateLimiterEntityFromSource != null ? transformRateLimiterEntityToRateLimiterDto(rateLimiterEntityFromSource) : null;
+        }
+        return Optional.ofNullable(rateLimiterDto);
+    }
+
+    private Map<String, Optional<RateLimiterDto>> loadRateLimiterDtos(Iterable<? extends String> keys) {
+        Map<String, Optional<RateLimiterDto>> rateLimiterDtos = new HashMap<>();
+        Set<String> missingKeys = new HashSet<>();
+        for (String key : keys) {
+            T rateLimiterEntityFromCache = getRateLimiterEntityFromCache(key);
+            RateLimiterDto rateLimiterDto = rateLimiterEntityFromCache != null ? transformRateLimiterEntityToRateLimiterDto(rateLimiterEntityFromCache) : null;
+            if (rateLimiterDto != null) {
+                rateLimiterDtos.put(key, Optional.of(rateLimiterDto));
+            } else {
+                missingKeys.add(key);
+            }
+        }
+        if (!missingKeys.isEmpty()) {
+            for (T rateLimiterEntityFromSource : getRateLimiterEntitiesFromSource(missingKeys)) {
+                RateLimiterDto rateLimiterDto = transformRateLimiterEntityToRateLimiterDto(rateLimiterEntityFromSource);
+                if (rateLimiterDto != null && missingKeys.contains(rateLimiterDto.getKey())) {
+                    rateLimiterDtos.put(rateLimiterDto.getKey(), Optional.of(rateLimiterDto));
+                }
+            }
+            for (String missingKey : missingKeys) {
+                rateLimiterDtos.putIfAbsent(missingKey, Optional.empty());
+            }
+        }
+        return rateLimiterDtos;
+    }
+
+    private LoadingCache<String, Optional<RateLimiterDto>> getLocalConfigCache() {
+        LoadingCache<String, Optional<RateLimiterDto>> cache = localConfigCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = localConfigCache;
+                if (cache == null) {
+                    Caffeine<String, Optional<RateLimiterDto>> builder = Caffeine.newBuilder()
+                            .maximumSize(configCacheMaxSize)
+                            .expireAfter(new ConfigCacheExpiry(TimeUnit.SECONDS.toNanos(configCacheTtlSeconds),
+                                    TimeUnit.SECONDS.toNanos(configCacheNegativeTtlSeconds)))
+                            .executor(newRefreshExecutor())
+                            .recordStats();
+                    // An entry is reloaded on the first read once it is within refreshAheadSeconds of its expiry.
+                    long refreshAfterSeconds = configCacheTtlSeconds - configCacheRefreshAheadSeconds;
+                    if (configCacheRefreshAheadSeconds > 0 && refreshAfterSeconds > 0) {
+                        builder.refreshAfterWrite(refreshAfterSeconds, TimeUnit.SECONDS);
+                    }
+                    cache = builder.build(new ConfigCacheLoader());
+                    localConfigCache = cache;
+                }
             }
-            rateLimiterDto = transformRateLimiterEntityToRateLimiterDto(rateLimiterEntityFromSource);
         }
-        return rateLimiterDto;
+        return cache;
+    }
+
+    /**
+     * Runs the reloads of the local cache, which call the user cache and the source, on daemon
+     * threads of their own instead of the common pool. Idle threads are stopped.
+     */
+    private Executor newRefreshExecutor() {
+        int threads = Math.max(1, configCacheRefreshThreads);
+        ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "rate-limiter-config-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshExecutor.allowCoreThreadTimeOut(true);
+        return refreshExecutor;
+    }
+
+    /**
+     * Loads a key with {@link #loadRateLimiterDto(String)} and several keys at once with
+     * {@link #loadRateLimiterDtos(Iterable)}.
+     */
+    private class ConfigCacheLoader implements CacheLoader<String, Optional<RateLimiterDto>> {
+
+        @Override
+        public Optional<RateLimiterDto> load(String key) {
+            return loadRateLimiterDto(key);
+        }
+
+        @Override
+        public Map<String, Optional<RateLimiterDto>> loadAll(Iterable<? extends String> keys) {
+            return loadRateLimiterDtos(keys);
+        }
+    }
+
+    /**
+     * Keeps the Rate Limiter Objects for the configured TTL and the missing keys for the
+     * negative TTL.
+     */
+    private static class ConfigCacheExpiry implements Expiry<String, Optional<RateLimiterDto>> {
+
+        private final long ttlNanos;
+        private final long negativeTtlNanos;
+
+        ConfigCacheExpiry(long ttlNanos, long negativeTtlNanos) {
+            this.ttlNanos = ttlNanos;
+            this.negativeTtlNanos = negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterCreate(String key, Optional<RateLimiterDto> value, long currentTime) {
+            return value.isPresent() ? ttlNanos : negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Optional<RateLimiterDto> value, long currentTime, long currentDuration) {
+            return value.isPresent() ? ttlNanos : negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterRead(String key, Optional<RateLimiterDto> value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
     }
 
 }
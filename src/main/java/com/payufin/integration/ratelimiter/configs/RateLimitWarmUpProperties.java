@@ -0,0 +1,30 @@
+package com.payufin.integration.ratelimiter.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keys whose Rate Limiter Objects and buckets are loaded at startup, before the application
+ * accepts traffic.
+ */
+
+@Configuration
+@ConfigurationProperties(prefix = "rate-limiter.warm-up")
+@Data
+public class RateLimitWarmUpProperties {
+
+    /**
+     * Rate Limit keys to load, by the bean name of their {@link RateLimitConfigProvider}.
+     */
+    private Map<String, List<String>> keys = new LinkedHashMap<>();
+
+    /**
+     * Number of keys read from the source at once.
+     */
+    private int batchSize = 500;
+}
@@ -0,0 +1,33 @@
+package com.payufin.integration.ratelimiter.configs;
+
+import com.payufin.integration.ratelimiter.interceptors.RateLimitInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Registers the {@link RateLimitInterceptor} for the path patterns of the configured rules.
+ */
+
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class RateLimitWebConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private RateLimitWebProperties rateLimitWebProperties;
+
+    @Autowired
+    private RateLimitInterceptor rateLimitInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (rateLimitWebProperties.getRules().isEmpty()) {
+            return;
+        }
+        registry.addInterceptor(rateLimitInterceptor)
+                .addPathPatterns(rateLimitInterceptor.getPathPatterns())
+                .order(Integer.MIN_VALUE);
+    }
+}
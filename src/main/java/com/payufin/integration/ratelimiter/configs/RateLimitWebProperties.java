@@ -0,0 +1,68 @@
+package com.payufin.integration.ratelimiter.configs;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rules of the HTTP interceptor, which limits requests by path before their body is read.
+ */
+
+@Configuration
+@ConfigurationProperties(prefix = "rate-limiter.web")
+@Data
+public class RateLimitWebProperties {
+
+    private List<Rule> rules = new ArrayList<>();
+
+    /**
+     * Header holding the client IP when behind a proxy, e.g. X-Forwarded-For. The remote address
+     * of the connection is used when not set or absent, which is also the client IP resolved by
+     * server.forward-headers-strategy when the server handles the forwarded headers itself.
+     */
+    private String clientIpHeader;
+
+    /**
+     * Number of proxies in front of the application appending to clientIpHeader. The client IP is
+     * the value this many entries from the right, the one written by the outermost trusted proxy:
+     * the entries on its left are sent by the client and cannot be trusted.
+     */
+    private int trustedProxies = 1;
+
+    @Data
+    public static class Rule {
+
+        /**
+         * Ant style path patterns of the limited requests, e.g. /orders/**.
+         */
+        private List<String> pathPatterns = new ArrayList<>();
+
+        /**
+         * HTTP methods of the limited requests, all methods when empty.
+         */
+        private List<String> methods = new ArrayList<>();
+
+        private String providerBeanName;
+
+        private KeySource keySource = KeySource.CLIENT_IP;
+
+        /**
+         * Name of the header or path variable holding the Rate Limit key.
+         */
+        private String keyName;
+
+        /**
+         * Rate Limit key used when the request does not carry one.
+         */
+        private String defaultKey;
+
+        private int priority = Integer.MAX_VALUE;
+    }
+
+    public enum KeySource {
+        HEADER, PATH_VARIABLE, CLIENT_IP, DEFAULT
+    }
+}
@@ -1,13 +1,24 @@
 package com.payufin.integration.ratelimiter.configs;
 
+import com.payufin.integration.ratelimiter.backends.CasRetryCountingProxyManager;
 import io.github.bucket4j.distributed.proxy.ClientSideConfig;
 import io.github.bucket4j.redis.redisson.cas.RedissonBasedProxyManager;
+import org.redisson.RedissonTopic;
+import org.redisson.api.RTopic;
+import org.redisson.client.codec.StringCodec;
 import org.redisson.command.CommandSyncService;
+import org.redisson.config.BaseConfig;
+import org.redisson.config.BaseMasterSlaveServersConfig;
+import org.redisson.config.ClusterServersConfig;
 import org.redisson.config.Config;
 import org.redisson.config.ConfigSupport;
+import org.redisson.config.ReplicatedServersConfig;
+import org.redisson.config.SentinelServersConfig;
+import org.redisson.config.SingleServerConfig;
 import org.redisson.connection.ConnectionManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -25,6 +36,7 @@ import java.time.temporal.ChronoUnit;
  */
 
 @Configuration
+@ConditionalOnExpression("'${rate-limiter.backend:redis}'.startsWith('redis')")
 public class RateLimiterRedisConfig {
 
     @Value("${rate-limiter.bucket4j-redisKey.expiry}")
@@ -33,20 +45,86 @@ public class RateLimiterRedisConfig {
     @Value("${rate-limiter.bucket4j-redisKey.expiryTimeUnit}")
     private String expiryTimeUnit;
 
+    @Value("${rate-limiter.invalidation.topic:rate-limiter:invalidation}")
+    private String invalidationTopic;
+
     @Autowired
     private RedissonAddress redissonAddress;
 
     @Bean(destroyMethod = "shutdown")
     public ConnectionManager redissonConnectionManager() {
         Config config = new Config();
-        config.useReplicatedServers().addNodeAddress(this.redissonAddress.getNodeAddresses().toArray(new String[this.redissonAddress.getNodeAddresses().size()]));
+        config.setNettyThreads(redissonAddress.getNettyThreads());
+        String[] nodeAddresses = redissonAddress.getNodeAddresses().toArray(new String[0]);
+        switch (redissonAddress.getMode()) {
+            case SINGLE:
+                SingleServerConfig singleServerConfig = config.useSingleServer()
+                        .setAddress(nodeAddresses[0])
+                        .setDatabase(redissonAddress.getDatabase())
+                        .setConnectionPoolSize(redissonAddress.getConnectionPoolSize())
+                        .setConnectionMinimumIdleSize(redissonAddress.getConnectionMinimumIdleSize());
+                applyCommonSettings(singleServerConfig);
+                break;
+            case CLUSTER:
+                ClusterServersConfig clusterServersConfig = config.useClusterServers()
+                        .addNodeAddress(nodeAddresses)
+                        .setScanInterval(redissonAddress.getScanIntervalMillis());
+                applyMasterSlaveSettings(clusterServersConfig);
+                break;
+            case SENTINEL:
+                SentinelServersConfig sentinelServersConfig = config.useSentinelServers()
+                        .addSentinelAddress(nodeAddresses)
+                        .setMasterName(redissonAddress.getMasterName())
+                        .setDatabase(redissonAddress.getDatabase())
+                        .setScanInterval(redissonAddress.getScanIntervalMillis());
+                applyMasterSlaveSettings(sentinelServersConfig);
+                break;
+            default:
+                ReplicatedServersConfig replicatedServersConfig = config.useReplicatedServers()
+                        .addNodeAddress(nodeAddresses)
+                        .setDatabase(redissonAddress.getDatabase())
+                        .setScanInterval(redissonAddress.getScanIntervalMillis());
+                applyMasterSlaveSettings(replicatedServersConfig);
+                break;
+        }
         return ConfigSupport.createConnectionManager(config);
     }
 
+    /**
+     * Rate limit checks are writes, so only the connections to the masters are sized.
+     */
+    private void applyMasterSlaveSettings(BaseMasterSlaveServersConfig<?> serversConfig) {
+        serversConfig.setMasterConnectionPoolSize(redissonAddress.getConnectionPoolSize())
+                .setMasterConnectionMinimumIdleSize(redissonAddress.getConnectionMinimumIdleSize());
+        applyCommonSettings(serversConfig);
+    }
+
+    private void applyCommonSettings(BaseConfig<?> serversConfig) {
+        serversConfig.setPassword(redissonAddress.getPassword())
+                .setTimeout(redissonAddress.getTimeoutMillis())
+                .setConnectTimeout(redissonAddress.getConnectTimeoutMillis())
+                .setRetryAttempts(redissonAddress.getRetryAttempts())
+                .setRetryInterval(redissonAddress.getRetryIntervalMillis())
+                .setPingConnectionInterval(redissonAddress.getPingConnectionIntervalMillis())
+                .setTcpNoDelay(redissonAddress.isTcpNoDelay());
+    }
+
+    @Bean("rateLimiterCommandExecutor")
+    public CommandSyncService commandExecutor() {
+        return new CommandSyncService(redissonConnectionManager());
+    }
+
+    /**
+     * Topic on which the changed Rate Limit keys are published to all the nodes.
+     */
+    @Bean("rateLimiterInvalidationTopic")
+    public RTopic invalidationTopic() {
+        return new RedissonTopic(StringCodec.INSTANCE, commandExecutor(), invalidationTopic);
+    }
+
     @Bean("rateLimiterProxyManager")
     public RedissonBasedProxyManager proxyManager() throws IOException {
-        CommandSyncService commandSyncService = new CommandSyncService(redissonConnectionManager());
-        return new RedissonBasedProxyManager(commandSyncService,
+        return new CasRetryCountingProxyManager(commandExecutor(),
                 ClientSideConfig.getDefault(),
                 Duration.of(expiry, ChronoUnit.valueOf(expiryTimeUnit.toUpperCase())));
     }
@@ -19,8 +19,55 @@ public class RedissonAddress {
 
     private List<String> nodeAddresses = new ArrayList<>();
 
+    /**
+     * Topology of the Redis servers given in nodeAddresses.
+     */
+    private Mode mode = Mode.REPLICATED;
+
+    /**
+     * Name of the master monitored by the sentinels, needed in SENTINEL mode.
+     */
+    private String masterName;
+
+    private String password;
+
+    private int database = 0;
+
+    private int timeoutMillis = 3000;
+
+    private int connectTimeoutMillis = 10000;
+
+    private int retryAttempts = 3;
+
+    private int retryIntervalMillis = 1500;
+
+    /**
+     * Connections kept to every master, commands sent on the same connection are pipelined.
+     */
+    private int connectionPoolSize = 64;
+
+    private int connectionMinimumIdleSize = 24;
+
+    /**
+     * Threads of the Redisson event loop, 0 for two per core.
+     */
+    private int nettyThreads = 32;
+
+    private boolean tcpNoDelay = true;
+
+    private int pingConnectionIntervalMillis = 0;
+
+    /**
+     * Interval at which the cluster or sentinel topology is refreshed.
+     */
+    private int scanIntervalMillis = 1000;
+
     public List<String> getNodeAddresses() {
         return this.nodeAddresses;
     }
 
+    public enum Mode {
+        SINGLE, REPLICATED, CLUSTER, SENTINEL
+    }
+
 }
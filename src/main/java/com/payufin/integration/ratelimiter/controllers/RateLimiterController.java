@@ -1,7 +1,10 @@
 package com.payufin.integration.ratelimiter.controllers;
 
 import com.payufin.integration.ratelimiter.configs.RateLimitConfigProvider;
+import com.payufin.integration.ratelimiter.models.RateLimitMemoryReport;
 import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import com.payufin.integration.ratelimiter.services.RateLimitConfigInvalidator;
+import com.payufin.integration.ratelimiter.services.RateLimitMemoryReporter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -14,9 +17,16 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Author - lakshya.jain <br>
  * Date - 09/10/2022
+ * <p>
+ * <p>
+ * Every change of a Rate Limiter Object removes it from the user cache and invalidates it on
+ * all the nodes, so that the new limit is applied right away.
  */
 
 @RestController
@@ -26,16 +36,26 @@ public class RateLimiterController<T> {
     @Autowired
     RateLimitConfigProvider<T> rateLimitConfigProvider;
 
+    @Autowired
+    RateLimitConfigInvalidator rateLimitConfigInvalidator;
+
+    @Autowired(required = false)
+    RateLimitMemoryReporter rateLimitMemoryReporter;
+
     @PostMapping(value = "/insertRateLimiterEntity")
     public ResponseEntity<T> insertRateLimiterEntity(@RequestBody RateLimiterDto rateLimiterDto) {
         T rateLimiterEntity = rateLimitConfigProvider.transformRateLimiterDtoToRateLimiterEntity(rateLimiterDto);
-        return new ResponseEntity<>(rateLimitConfigProvider.insertRateLimiterEntityToSource(rateLimiterEntity), HttpStatus.CREATED);
+        T insertedRateLimiterEntity = rateLimitConfigProvider.insertRateLimiterEntityToSource(rateLimiterEntity);
+        invalidate(rateLimiterDto.getKey());
+        return new ResponseEntity<>(insertedRateLimiterEntity, HttpStatus.CREATED);
     }
 
     @PutMapping(value = "/updateRateLimiterEntity")
     public ResponseEntity<T> updateRateLimiterEntity(@RequestBody RateLimiterDto rateLimiterDto) {
         T rateLimiterEntity = rateLimitConfigProvider.transformRateLimiterDtoToRateLimiterEntity(rateLimiterDto);
-        return new ResponseEntity<>(rateLimitConfigProvider.updateRateLimiterEntityToSource(rateLimiterEntity), HttpStatus.OK);
+        T updatedRateLimiterEntity = rateLimitConfigProvider.updateRateLimiterEntityToSource(rateLimiterEntity);
+        invalidate(rateLimiterDto.getKey());
+        return new ResponseEntity<>(updatedRateLimiterEntity, HttpStatus.OK);
     }
 
     @GetMapping(value = "/getRateLimiterEntity")
@@ -45,7 +65,60 @@ public class RateLimiterController<T> {
 
     @DeleteMapping(value = "/deleteRateLimiterEntity")
     public ResponseEntity<String> deleteRateLimiterEntity(@RequestParam String rateLimitKey) {
-        return new ResponseEntity<>(rateLimitConfigProvider.deleteRateLimiterEntityFromSource(rateLimitKey), HttpStatus.OK);
+        String deleted = rateLimitConfigProvider.deleteRateLimiterEntityFromSource(rateLimitKey);
+        invalidate(rateLimitKey);
+        return new ResponseEntity<>(deleted, HttpStatus.OK);
+    }
+
+    @PostMapping(value = "/insertRateLimiterEntities")
+    public ResponseEntity<List<T>> insertRateLimiterEntities(@RequestBody List<RateLimiterDto> rateLimiterDtos) {
+        List<T> insertedRateLimiterEntities = rateLimitConfigProvider.insertRateLimiterEntitiesToSource(toRateLimiterEntities(rateLimiterDtos));
+        rateLimiterDtos.forEach(rateLimiterDto -> invalidate(rateLimiterDto.getKey()));
+        return new ResponseEntity<>(insertedRateLimiterEntities, HttpStatus.CREATED);
+    }
+
+    @PutMapping(value = "/updateRateLimiterEntities")
+    public ResponseEntity<List<T>> updateRateLimiterEntities(@RequestBody List<RateLimiterDto> rateLimiterDtos) {
+        List<T> updatedRateLimiterEntities = rateLimitConfigProvider.updateRateLimiterEntitiesToSource(toRateLimiterEntities(rateLimiterDtos));
+        rateLimiterDtos.forEach(rateLimiterDto -> invalidate(rateLimiterDto.getKey()));
+        return new ResponseEntity<>(updatedRateLimiterEntities, HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/getRateLimiterEntities")
+    public ResponseEntity<List<T>> getRateLimiterEntities(@RequestParam List<String> rateLimitKeys) {
+        return new ResponseEntity<>(rateLimitConfigProvider.getRateLimiterEntitiesFromSource(rateLimitKeys), HttpStatus.OK);
+    }
+
+    @DeleteMapping(value = "/deleteRateLimiterEntities")
+    public ResponseEntity<List<String>> deleteRateLimiterEntities(@RequestParam List<String> rateLimitKeys) {
+        List<String> deleted = rateLimitConfigProvider.deleteRateLimiterEntitiesFromSource(rateLimitKeys);
+        rateLimitKeys.forEach(this::invalidate);
+        return new ResponseEntity<>(deleted, HttpStatus.OK);
+    }
+
+    /**
+     * Memory used in Redis by the bucket keys, only available with the Redis backends. It scans
+     * the whole keyspace, so it is meant to be called occasionally.
+     */
+    @GetMapping(value = "/memoryReport")
+    public ResponseEntity<RateLimitMemoryReport> getMemoryReport(@RequestParam(defaultValue = "1000") int sampleSize) {
+        if (rateLimitMemoryReporter == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(rateLimitMemoryReporter.report(sampleSize), HttpStatus.OK);
+    }
+
+    private List<T> toRateLimiterEntities(List<RateLimiterDto> rateLimiterDtos) {
+        List<T> rateLimiterEntities = new ArrayList<>(rateLimiterDtos.size());
+        for (RateLimiterDto rateLimiterDto : rateLimiterDtos) {
+            rateLimiterEntities.add(rateLimitConfigProvider.transformRateLimiterDtoToRateLimiterEntity(rateLimiterDto));
+        }
+        return rateLimiterEntities;
+    }
+
+    private void invalidate(String rateLimitKey) {
+        rateLimitConfigProvider.deleteRateLimiterEntityFromCache(rateLimitKey);
+        rateLimitConfigInvalidator.invalidate(rateLimitKey);
     }
 
 }
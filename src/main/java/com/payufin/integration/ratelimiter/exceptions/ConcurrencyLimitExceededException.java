@@ -0,0 +1,61 @@
+package com.payufin.integration.ratelimiter.exceptions;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.payufin.integration.ratelimiter.utils.constants.CONCURRENCY_LIMIT_EXCEEDED;
+
+/**
+ * Thrown when a method limited in CONCURRENCY mode already has as many calls in flight as its
+ * limit. Like {@link RateLimitExceededException} it has no stack trace, as it is thrown the most
+ * when the application is already overloaded.
+ */
+
+@Getter
+@EqualsAndHashCode(callSuper = true)
+public class ConcurrencyLimitExceededException extends RateLimitException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String method;
+
+    private final int limit;
+
+    /**
+     * Average latency of the method, about the time until a call in flight completes.
+     */
+    private final long averageLatencyNanos;
+
+    public ConcurrencyLimitExceededException(String method, int limit, long averageLatencyNanos) {
+        super(HttpStatus.SERVICE_UNAVAILABLE.value(), null);
+        this.method = method;
+        this.limit = limit;
+        this.averageLatencyNanos = averageLatencyNanos;
+    }
+
+    @Override
+    public String getMessage() {
+        String message = super.getMessage();
+        if (message == null) {
+            message = CONCURRENCY_LIMIT_EXCEEDED + ", " + String.format("Calls of %s in flight are limited to %s", method, limit);
+            setMessage(message);
+        }
+        return message;
+    }
+
+    /**
+     * @return seconds after which a call has a chance to be admitted, at least 1
+     */
+    public long getRetryAfterSeconds() {
+        long nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+        return Math.max(1, (averageLatencyNanos + nanosPerSecond - 1) / nanosPerSecond);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,81 @@
+package com.payufin.integration.ratelimiter.exceptions;
+
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import io.github.bucket4j.ConsumptionProbe;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.payufin.integration.ratelimiter.utils.constants.RATE_LIMIT_EXCEEDED;
+
+/**
+ * Thrown when the limit of a key is exceeded. Rejections are expected under load, so the
+ * exception has no stack trace and its message is only built when asked for. It carries the
+ * state of the bucket so that the caller can be told when to retry.
+ */
+
+@Getter
+@EqualsAndHashCode(callSuper = true)
+public class RateLimitExceededException extends RateLimitException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient RateLimiterDto rateLimiterDto;
+
+    private final long remainingTokens;
+
+    /**
+     * Nanos until the rejected call could be admitted, Long.MAX_VALUE when it never can.
+     */
+    private final long nanosToWaitForRefill;
+
+    /**
+     * Nanos until the bucket of the key is full again.
+     */
+    private final long nanosToWaitForReset;
+
+    public RateLimitExceededException(RateLimiterDto rateLimiterDto, ConsumptionProbe consumptionProbe) {
+        super(HttpStatus.TOO_MANY_REQUESTS.value(), null);
+        this.rateLimiterDto = rateLimiterDto;
+        this.remainingTokens = consumptionProbe.getRemainingTokens();
+        this.nanosToWaitForRefill = consumptionProbe.getNanosToWaitForRefill();
+        this.nanosToWaitForReset = consumptionProbe.getNanosToWaitForReset();
+    }
+
+    @Override
+    public String getMessage() {
+        String message = super.getMessage();
+        if (message == null) {
+            message = RATE_LIMIT_EXCEEDED + ", " + String.format("Rate for %s is limited to %s requests per %s",
+                    rateLimiterDto.getKey(), rateLimiterDto.getMaxLimit(), rateLimiterDto.getTimeUnit().toString());
+            setMessage(message);
+        }
+        return message;
+    }
+
+    /**
+     * @return seconds until the rejected call could be admitted, rounded up, or -1 when it never can
+     */
+    public long getRetryAfterSeconds() {
+        return nanosToWaitForRefill == Long.MAX_VALUE ? -1 : toSecondsRoundedUp(nanosToWaitForRefill);
+    }
+
+    /**
+     * @return seconds until the bucket of the key is full again, rounded up
+     */
+    public long getResetSeconds() {
+        return toSecondsRoundedUp(nanosToWaitForReset);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+    private static long toSecondsRoundedUp(long nanos) {
+        long nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+        return nanos <= 0 ? 0 : nanos / nanosPerSecond + (nanos % nanosPerSecond == 0 ? 0 : 1);
+    }
+}
@@ -19,6 +19,9 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 @NoArgsConstructor
 public class RateLimitException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
     private int status;
     private String message;
 }
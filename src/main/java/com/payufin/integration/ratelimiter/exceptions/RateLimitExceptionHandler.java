@@ -0,0 +1,82 @@
+package com.payufin.integration.ratelimiter.exceptions;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Answers rejected requests with 429, or 503 when the concurrency limit of a method is reached,
+ * and tells the client when to retry, so that well-behaved
+ * clients back off instead of retrying right away. It is a {@link HandlerExceptionResolver} with
+ * the lowest precedence, which runs after the resolver of all the {@code @ExceptionHandler}
+ * methods, so any exception handler of the application matching {@link RateLimitException} wins
+ * whatever its order. Disabled with rate-limiter.exception-handler.enabled=false.
+ */
+
+@Slf4j
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "rate-limiter.exception-handler.enabled", havingValue = "true", matchIfMissing = true)
+public class RateLimitExceptionHandler implements HandlerExceptionResolver, Ordered {
+
+    public static final String RATE_LIMIT_LIMIT = "X-RateLimit-Limit";
+    public static final String RATE_LIMIT_REMAINING = "X-RateLimit-Remaining";
+    public static final String RATE_LIMIT_RESET = "X-RateLimit-Reset";
+
+    @Override
+    public ModelAndView resolveException(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (response.isCommitted()) {
+            return null;
+        }
+        if (ex instanceof RateLimitExceededException) {
+            handleRateLimitExceeded((RateLimitExceededException) ex, response);
+        } else if (ex instanceof ConcurrencyLimitExceededException) {
+            handleConcurrencyLimitExceeded((ConcurrencyLimitExceededException) ex, response);
+        } else {
+            return null;
+        }
+        try {
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.getWriter().write(ex.getMessage());
+        } catch (IOException ioException) {
+            log.debug("Unable to write the rate limit response", ioException);
+        }
+        // An empty ModelAndView tells the DispatcherServlet that the response is complete.
+        return new ModelAndView();
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE;
+    }
+
+    private static void handleRateLimitExceeded(RateLimitExceededException ex, HttpServletResponse response) {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        long retryAfterSeconds = ex.getRetryAfterSeconds();
+        if (retryAfterSeconds >= 0) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        }
+        response.setHeader(RATE_LIMIT_LIMIT, Integer.toString(ex.getRateLimiterDto().getMaxLimit()));
+        response.setHeader(RATE_LIMIT_REMAINING, Long.toString(ex.getRemainingTokens()));
+        response.setHeader(RATE_LIMIT_RESET, Long.toString(ex.getResetSeconds()));
+    }
+
+    private static void handleConcurrencyLimitExceeded(ConcurrencyLimitExceededException ex, HttpServletResponse response) {
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(ex.getRetryAfterSeconds()));
+        response.setHeader(RATE_LIMIT_LIMIT, Integer.toString(ex.getLimit()));
+    }
+}
@@ -0,0 +1,204 @@
+package com.payufin.integration.ratelimiter.interceptors;
+
+import com.payufin.integration.ratelimiter.configs.RateLimitConfigProvider;
+import com.payufin.integration.ratelimiter.configs.RateLimitWebProperties;
+import com.payufin.integration.ratelimiter.exceptions.RateLimitExceededException;
+import com.payufin.integration.ratelimiter.metrics.LimitMeters;
+import com.payufin.integration.ratelimiter.metrics.RateLimiterMetrics;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import com.payufin.integration.ratelimiter.services.RateLimiterService;
+import io.github.bucket4j.ConsumptionProbe;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.util.StringUtils;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Limits HTTP requests by the rules of {@link RateLimitWebProperties}. It runs once the handler of
+ * the request is found and before its arguments are resolved, so a rejected request never pays
+ * for the deserialization and validation of its body. The keys of all the rules matching a request
+ * are consumed together, in the same way as the RateLimit Annotations of a method.
+ */
+
+@Slf4j
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private final RateLimiterService rateLimiter;
+
+    private final List<RulePlan> rules;
+
+    private final String clientIpHeader;
+
+    private final int trustedProxies;
+
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    @Autowired
+    public RateLimitInterceptor(RateLimiterService rateLimiter, RateLimitWebProperties rateLimitWebProperties,
+                                BeanFactory beanFactory, RateLimiterMetrics rateLimiterMetrics) {
+        this.rateLimiter = rateLimiter;
+        this.clientIpHeader = rateLimitWebProperties.getClientIpHeader();
+        this.trustedProxies = Math.max(1, rateLimitWebProperties.getTrustedProxies());
+        this.rules = new ArrayList<>(rateLimitWebProperties.getRules().size());
+        for (RateLimitWebProperties.Rule rule : rateLimitWebProperties.getRules()) {
+            RateLimitConfigProvider<?> rateLimitConfigProvider = beanFactory.getBean(rule.getProviderBeanName(), RateLimitConfigProvider.class);
+            LimitMeters limitMeters = rateLimiterMetrics.limitMeters("http " + String.join(",", rule.getPathPatterns()), rule.getProviderBeanName());
+            rules.add(new RulePlan(rule, rateLimitConfigProvider, limitMeters));
+        }
+        rules.sort(Comparator.comparingInt(rulePlan -> rulePlan.rule.getPriority()));
+    }
+
+    /**
+     * @return path patterns of all the rules, for the registration of the interceptor
+     */
+    public String[] getPathPatterns() {
+        Set<String> pathPatterns = new LinkedHashSet<>();
+        for (RulePlan rulePlan : rules) {
+            pathPatterns.addAll(rulePlan.rule.getPathPatterns());
+        }
+        return pathPatterns.toArray(new String[0]);
+    }
+
+    /**
+     * @throws RateLimitExceededException when a limit of the request is exceeded
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String lookupPath = urlPathHelper.getLookupPathForRequest(request);
+        List<RateLimiterDto> rateLimiterDtos = new ArrayList<>(rules.size());
+        List<LimitMeters> limitMeters = new ArrayList<>(rules.size());
+        for (RulePlan rulePlan : rules) {
+            if (!rulePlan.matches(request.getMethod(), lookupPath, pathMatcher)) {
+                continue;
+            }
+            String rateLimitKey = getRateLimitKey(rulePlan.rule, request);
+            if (!StringUtils.hasLength(rateLimitKey)) {
+                continue;
+            }
+            long lookupStartNanos = System.nanoTime();
+            RateLimiterDto rateLimiterDto = rulePlan.rateLimitConfigProvider.getRateLimiterDto(rateLimitKey);
+            rulePlan.limitMeters.recordConfigLookup(lookupStartNanos);
+            if (rateLimiterDto != null && rateLimiterDto.isActive()) {
+                rateLimiterDtos.add(rateLimiterDto);
+                limitMeters.add(rulePlan.limitMeters);
+            }
+        }
+
+        if (rateLimiterDtos.size() == 1) {
+            throwIfRateLimitReached(rateLimiterDtos.get(0), limitMeters.get(0), rateLimiter.tryConsume(rateLimiterDtos.get(0), 1));
+        } else if (rateLimiterDtos.size() > 1) {
+            ConsumptionProbe[] consumptionProbes = rateLimiter.tryConsumeAll(rateLimiterDtos, 1);
+            int rejectedIndex = -1;
+            for (int i = 0; i < consumptionProbes.length; i++) {
+                limitMeters.get(i).recordDecision(rateLimiterDtos.get(i).getKey(), consumptionProbes[i]);
+                if (rejectedIndex < 0 && !consumptionProbes[i].isConsumed()) {
+                    rejectedIndex = i;
+                }
+            }
+            if (rejectedIndex >= 0) {
+                throw new RateLimitExceededException(rateLimiterDtos.get(rejectedIndex), consumptionProbes[rejectedIndex]);
+            }
+        }
+        return true;
+    }
+
+    private void throwIfRateLimitReached(RateLimiterDto rateLimiterDto, LimitMeters limitMeters, ConsumptionProbe consumptionProbe) {
+        limitMeters.recordDecision(rateLimiterDto.getKey(), consumptionProbe);
+        if (!consumptionProbe.isConsumed()) {
+            throw new RateLimitExceededException(rateLimiterDto, consumptionProbe);
+        }
+    }
+
+    /**
+     * Reads the Rate Limit key of a rule from the request, falling back to the default key of
+     * the rule when the request does not carry one.
+     */
+    @SuppressWarnings("unchecked")
+    private String getRateLimitKey(RateLimitWebProperties.Rule rule, HttpServletRequest request) {
+        String rateLimitKey = null;
+        switch (rule.getKeySource()) {
+            case HEADER:
+                rateLimitKey = request.getHeader(rule.getKeyName());
+                break;
+            case PATH_VARIABLE:
+                Map<String, String> pathVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+                rateLimitKey = pathVariables != null ? pathVariables.get(rule.getKeyName()) : null;
+                break;
+            case CLIENT_IP:
+                rateLimitKey = getClientIp(request);
+                break;
+            default:
+                break;
+        }
+        return StringUtils.hasLength(rateLimitKey) ? rateLimitKey : rule.getDefaultKey();
+    }
+
+    /**
+     * Every proxy appends the address it received the request from, so the entries of the header
+     * are read from the right, skipping those of the trusted proxies. A header sent more than once
+     * is read as a single list, in the order of the headers.
+     */
+    private String getClientIp(HttpServletRequest request) {
+        if (clientIpHeader != null) {
+            List<String> forwardedFor = new ArrayList<>();
+            Enumeration<String> headers = request.getHeaders(clientIpHeader);
+            while (headers != null && headers.hasMoreElements()) {
+                for (String address : StringUtils.commaDelimitedListToStringArray(headers.nextElement())) {
+                    if (StringUtils.hasText(address)) {
+                        forwardedFor.add(address.trim());
+                    }
+                }
+            }
+            if (!forwardedFor.isEmpty()) {
+                return forwardedFor.get(Math.max(0, forwardedFor.size() - trustedProxies));
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    private static final class RulePlan {
+
+        private final RateLimitWebProperties.Rule rule;
+        private final RateLimitConfigProvider<?> rateLimitConfigProvider;
+        private final LimitMeters limitMeters;
+
+        RulePlan(RateLimitWebProperties.Rule rule, RateLimitConfigProvider<?> rateLimitConfigProvider, LimitMeters limitMeters) {
+            this.rule = rule;
+            this.rateLimitConfigProvider = rateLimitConfigProvider;
+            this.limitMeters = limitMeters;
+        }
+
+        boolean matches(String method, String lookupPath, PathMatcher pathMatcher) {
+            if (!rule.getMethods().isEmpty() && rule.getMethods().stream().noneMatch(method::equalsIgnoreCase)) {
+                return false;
+            }
+            for (String pathPattern : rule.getPathPatterns()) {
+                if (pathMatcher.match(pathPattern, lookupPath)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.payufin.integration.ratelimiter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Resolution of the Rate Limiter Object of a key, from the local config cache or its source.
+ */
+
+@Name("com.payufin.ratelimiter.ConfigLookup")
+@Label("Rate Limit Config Lookup")
+@Category("Rate Limiter")
+@Description("Resolution of the Rate Limiter object of a key")
+@StackTrace(false)
+class ConfigLookupEvent extends Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("Key Hash")
+    @Description("Hash code of the Rate Limit key, so that keys are not recorded")
+    int keyHash;
+
+    @Label("Found")
+    boolean found;
+
+    @Label("Active")
+    boolean active;
+}
@@ -0,0 +1,34 @@
+package com.payufin.integration.ratelimiter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Consumption of the buckets of a call, which is the round trip to Redis with a Redis backend.
+ */
+
+@Name("com.payufin.ratelimiter.Consume")
+@Label("Rate Limit Consume")
+@Category("Rate Limiter")
+@Description("Consumption of the buckets of the keys of a call")
+@StackTrace(false)
+class ConsumeEvent extends Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("Keys")
+    int keys;
+
+    @Label("Consumed")
+    @Description("True when the buckets of all the keys were consumed")
+    boolean consumed;
+
+    @Label("CAS Retries")
+    @Description("Compare-and-swap writes lost to another node, with the redis backend")
+    long casRetries;
+}
@@ -0,0 +1,38 @@
+package com.payufin.integration.ratelimiter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Decision taken for a key of a call.
+ */
+
+@Name("com.payufin.ratelimiter.Decision")
+@Label("Rate Limit Decision")
+@Category("Rate Limiter")
+@Description("Decision taken for a key of a call")
+@StackTrace(false)
+class DecisionEvent extends Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("Key Hash")
+    @Description("Hash code of the Rate Limit key, so that keys are not recorded")
+    int keyHash;
+
+    @Label("Allowed")
+    boolean allowed;
+
+    @Label("Remaining Tokens")
+    long remainingTokens;
+
+    @Label("Time To Refill")
+    @Timespan(Timespan.NANOSECONDS)
+    long nanosToWaitForRefill;
+}
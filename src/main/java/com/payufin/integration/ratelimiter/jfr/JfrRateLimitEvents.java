@@ -0,0 +1,112 @@
+package com.payufin.integration.ratelimiter.jfr;
+
+import com.payufin.integration.ratelimiter.backends.CasRetryCountingProxyManager;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import io.github.bucket4j.ConsumptionProbe;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Creates and commits the events of {@link RateLimitEvents}. This class is only loaded when the
+ * JFR classes are present. Whether a recording is running is kept in a flag updated by a
+ * {@link FlightRecorderListener}, so that a check does not create any event object otherwise.
+ */
+
+final class JfrRateLimitEvents {
+
+    private static volatile boolean recording;
+
+    static {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording changedRecording) {
+                updateRecording();
+            }
+        });
+        // A recording started with the JVM runs before the listener is added.
+        if (FlightRecorder.isInitialized()) {
+            updateRecording();
+        }
+    }
+
+    private JfrRateLimitEvents() {
+    }
+
+    private static void updateRecording() {
+        boolean running = false;
+        for (Recording runningRecording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            running |= runningRecording.getState() == RecordingState.RUNNING;
+        }
+        recording = running;
+    }
+
+    static boolean isRecording() {
+        return recording;
+    }
+
+    static Object beginConfigLookup() {
+        if (!recording) {
+            return null;
+        }
+        ConfigLookupEvent event = new ConfigLookupEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commitConfigLookup(Object begunEvent, String method, String key, RateLimiterDto rateLimiterDto) {
+        ConfigLookupEvent event = (ConfigLookupEvent) begunEvent;
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = method;
+            event.keyHash = key.hashCode();
+            event.found = rateLimiterDto != null;
+            event.active = rateLimiterDto != null && rateLimiterDto.isActive();
+            event.commit();
+        }
+    }
+
+    static Object beginConsume() {
+        if (!recording) {
+            return null;
+        }
+        ConsumeEvent event = new ConsumeEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.casRetries = -CasRetryCountingProxyManager.casRetries();
+        event.begin();
+        return event;
+    }
+
+    static void commitConsume(Object begunEvent, String method, int keys, boolean consumed) {
+        ConsumeEvent event = (ConsumeEvent) begunEvent;
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = method;
+            event.keys = keys;
+            event.consumed = consumed;
+            event.casRetries += CasRetryCountingProxyManager.casRetries();
+            event.commit();
+        }
+    }
+
+    static void decision(String method, String key, ConsumptionProbe consumptionProbe) {
+        if (!recording) {
+            return;
+        }
+        DecisionEvent event = new DecisionEvent();
+        if (event.shouldCommit()) {
+            event.method = method;
+            event.keyHash = key.hashCode();
+            event.allowed = consumptionProbe.isConsumed();
+            event.remainingTokens = consumptionProbe.getRemainingTokens();
+            event.nanosToWaitForRefill = consumptionProbe.getNanosToWaitForRefill();
+            event.commit();
+        }
+    }
+}
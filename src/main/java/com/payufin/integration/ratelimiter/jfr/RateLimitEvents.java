@@ -0,0 +1,80 @@
+package com.payufin.integration.ratelimiter.jfr;
+
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import io.github.bucket4j.ConsumptionProbe;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Java Flight Recorder events of the Rate Limit checks: the config lookup and the bucket
+ * consumption as timed events, and every decision with the hash of its key. The events are named
+ * com.payufin.ratelimiter.ConfigLookup, Consume and Decision, and are enabled, disabled or given
+ * a threshold per event type in the settings of a recording, like the events of the JDK.
+ * <p>
+ * Nothing is allocated unless a recording is running and the event type is enabled. An event
+ * begun here is passed back as an opaque object, null when it is not recorded, so that the JFR
+ * classes are only loaded on a JVM which has them.
+ */
+
+public final class RateLimitEvents {
+
+    private static final boolean JFR_PRESENT = ClassUtils.isPresent("jdk.jfr.FlightRecorder", RateLimitEvents.class.getClassLoader());
+
+    private RateLimitEvents() {
+    }
+
+    /**
+     * @return true while a flight recording is running
+     */
+    public static boolean isRecording() {
+        return JFR_PRESENT && JfrRateLimitEvents.isRecording();
+    }
+
+    /**
+     * @return begun config lookup event, null when it is not recorded
+     */
+    public static Object beginConfigLookup() {
+        return JFR_PRESENT ? JfrRateLimitEvents.beginConfigLookup() : null;
+    }
+
+    /**
+     * @param event          value returned by {@link #beginConfigLookup()}
+     * @param method         rate limited method
+     * @param key            Rate Limit key
+     * @param rateLimiterDto Rate Limiter Object of the key, null when there is none
+     */
+    public static void commitConfigLookup(Object event, String method, String key, RateLimiterDto rateLimiterDto) {
+        if (event != null) {
+            JfrRateLimitEvents.commitConfigLookup(event, method, key, rateLimiterDto);
+        }
+    }
+
+    /**
+     * @return begun consume event, null when it is not recorded
+     */
+    public static Object beginConsume() {
+        return JFR_PRESENT ? JfrRateLimitEvents.beginConsume() : null;
+    }
+
+    /**
+     * @param event    value returned by {@link #beginConsume()}
+     * @param method   rate limited method
+     * @param keys     number of keys consumed together
+     * @param consumed true when all the keys were consumed
+     */
+    public static void commitConsume(Object event, String method, int keys, boolean consumed) {
+        if (event != null) {
+            JfrRateLimitEvents.commitConsume(event, method, keys, consumed);
+        }
+    }
+
+    /**
+     * @param method           rate limited method
+     * @param key              Rate Limit key
+     * @param consumptionProbe result of the consumption of the key
+     */
+    public static void decision(String method, String key, ConsumptionProbe consumptionProbe) {
+        if (JFR_PRESENT) {
+            JfrRateLimitEvents.decision(method, key, consumptionProbe);
+        }
+    }
+}
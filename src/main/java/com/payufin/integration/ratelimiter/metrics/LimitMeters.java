@@ -0,0 +1,140 @@
+package com.payufin.integration.ratelimiter.metrics;
+
+import io.github.bucket4j.ConsumptionProbe;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of a single RateLimit annotation of a method: allowed and rejected decisions, config
+ * lookup latency, the tokens left in the bucket after an allowed call and the failures of its key
+ * expression. Meters are resolved
+ * once, so recording does not go through the registry on the hot path.
+ */
+
+public final class LimitMeters {
+
+    static final LimitMeters NOOP = new LimitMeters();
+
+    private final RateLimiterMetrics rateLimiterMetrics;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Tags tags;
+
+    private final Timer configLookupTimer;
+
+    private final DistributionSummary remainingTokens;
+
+    private final Counter keyExpressionErrors;
+
+    /**
+     * Decision counters per tagged key, null when keys are not used as a tag.
+     */
+    private final ConcurrentMap<String, DecisionCounters> keyDecisionCounters;
+
+    private final DecisionCounters decisionCounters;
+
+    LimitMeters(RateLimiterMetrics rateLimiterMetrics, MeterRegistry meterRegistry, Tags tags, boolean tagKeys) {
+        this.rateLimiterMetrics = rateLimiterMetrics;
+        this.meterRegistry = meterRegistry;
+        this.tags = tags;
+        this.configLookupTimer = Timer.builder("ratelimiter.config.lookup")
+                .description("Time taken to resolve the Rate Limiter object of a key")
+                .tags(tags)
+                .register(meterRegistry);
+        this.remainingTokens = DistributionSummary.builder("ratelimiter.remaining.tokens")
+                .description("Tokens left in the bucket after an allowed call")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.keyExpressionErrors = Counter.builder("ratelimiter.key.expression.errors")
+                .description("Calls whose key expression failed and which were limited under the empty key")
+                .tags(tags)
+                .register(meterRegistry);
+        this.keyDecisionCounters = tagKeys ? new ConcurrentHashMap<>() : null;
+        this.decisionCounters = new DecisionCounters(meterRegistry, tagKeys ? tags.and("key", RateLimiterMetrics.OTHER_KEY) : tags);
+    }
+
+    private LimitMeters() {
+        this.rateLimiterMetrics = null;
+        this.meterRegistry = null;
+        this.tags = null;
+        this.configLookupTimer = null;
+        this.remainingTokens = null;
+        this.keyExpressionErrors = null;
+        this.keyDecisionCounters = null;
+        this.decisionCounters = null;
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} taken before the Rate Limiter object was resolved
+     */
+    public void recordConfigLookup(long startNanos) {
+        if (configLookupTimer != null) {
+            configLookupTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordKeyExpressionError() {
+        if (keyExpressionErrors != null) {
+            keyExpressionErrors.increment();
+        }
+    }
+
+    /**
+     * @param key              Rate Limit key
+     * @param consumptionProbe probe returned by the bucket of the key
+     */
+    public void recordDecision(String key, ConsumptionProbe consumptionProbe) {
+        if (decisionCounters == null) {
+            return;
+        }
+        DecisionCounters counters = getDecisionCounters(key);
+        if (consumptionProbe.isConsumed()) {
+            counters.allowed.increment();
+            remainingTokens.record(consumptionProbe.getRemainingTokens());
+        } else {
+            counters.rejected.increment();
+        }
+    }
+
+    private DecisionCounters getDecisionCounters(String key) {
+        if (keyDecisionCounters == null || key == null) {
+            return decisionCounters;
+        }
+        DecisionCounters counters = keyDecisionCounters.get(key);
+        if (counters == null) {
+            if (!rateLimiterMetrics.admitKeyTag(key)) {
+                return decisionCounters;
+            }
+            counters = keyDecisionCounters.computeIfAbsent(key, k -> new DecisionCounters(meterRegistry, tags.and("key", k)));
+        }
+        return counters;
+    }
+
+    private static final class DecisionCounters {
+
+        private final Counter allowed;
+        private final Counter rejected;
+
+        DecisionCounters(MeterRegistry meterRegistry, Tags tags) {
+            this.allowed = decisionCounter(meterRegistry, tags, "allowed");
+            this.rejected = decisionCounter(meterRegistry, tags, "rejected");
+        }
+
+        private static Counter decisionCounter(MeterRegistry meterRegistry, Tags tags, String outcome) {
+            return Counter.builder("ratelimiter.decisions")
+                    .description("Rate limit decisions per key")
+                    .tags(tags)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry);
+        }
+    }
+}
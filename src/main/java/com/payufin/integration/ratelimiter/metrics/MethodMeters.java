@@ -0,0 +1,38 @@
+package com.payufin.integration.ratelimiter.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of a rate limited method: the time taken to consume the buckets of all its keys, which
+ * is the time spent in Redis for the Redis backend.
+ */
+
+public final class MethodMeters {
+
+    static final MethodMeters NOOP = new MethodMeters(null);
+
+    private final Timer consumeTimer;
+
+    MethodMeters(MeterRegistry meterRegistry, String method) {
+        this(Timer.builder("ratelimiter.consume")
+                .description("Time taken to consume the buckets of a call")
+                .tag("method", method)
+                .register(meterRegistry));
+    }
+
+    private MethodMeters(Timer consumeTimer) {
+        this.consumeTimer = consumeTimer;
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} taken before the buckets were consumed
+     */
+    public void recordConsume(long startNanos) {
+        if (consumeTimer != null) {
+            consumeTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.payufin.integration.ratelimiter.metrics;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.payufin.integration.ratelimiter.configs.RateLimitConfigProvider;
+import com.payufin.integration.ratelimiter.services.AdaptiveConcurrencyLimiter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates the Micrometer meters of the rate limited methods and binds the local config caches
+ * of the {@link RateLimitConfigProvider} beans. Metrics are recorded only when a {@link MeterRegistry}
+ * bean exists, which is the case when Spring Boot Actuator is on the classpath.
+ */
+
+@Slf4j
+@Component
+public class RateLimiterMetrics implements SmartInitializingSingleton {
+
+    static final String OTHER_KEY = "other";
+
+    private final MeterRegistry meterRegistry;
+
+    private final ListableBeanFactory beanFactory;
+
+    private final int maxKeyTags;
+
+    private final Set<String> taggedKeys = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public RateLimiterMetrics(ObjectProvider<MeterRegistry> meterRegistry, ListableBeanFactory beanFactory,
+                              @Value("${rate-limiter.metrics.enabled:true}") boolean metricsEnabled,
+                              @Value("${rate-limiter.metrics.maxKeyTags:100}") int maxKeyTags) {
+        this.meterRegistry = metricsEnabled ? meterRegistry.getIfAvailable() : null;
+        this.beanFactory = beanFactory;
+        this.maxKeyTags = maxKeyTags;
+    }
+
+    /**
+     * @return true when the meters are recorded to a registry
+     */
+    public boolean isEnabled() {
+        return meterRegistry != null;
+    }
+
+    /**
+     * Creates the meters of a rate limited method.
+     *
+     * @param method rate limited method
+     * @return meters of the method, which record nothing when metrics are disabled
+     */
+    public MethodMeters methodMeters(Method method) {
+        return meterRegistry != null ? new MethodMeters(meterRegistry, methodTag(method)) : MethodMeters.NOOP;
+    }
+
+    /**
+     * Creates the meters of a single RateLimit annotation of a method.
+     *
+     * @param method           rate limited method
+     * @param providerBeanName bean name of the configuration provider of the limit
+     * @return meters of the limit, which record nothing when metrics are disabled
+     */
+    public LimitMeters limitMeters(Method method, String providerBeanName) {
+        return limitMeters(methodTag(method), providerBeanName);
+    }
+
+    /**
+     * Creates the meters of a limit which is not declared on a method, e.g. a rule of the
+     * HTTP interceptor.
+     *
+     * @param source           name of the limited entry point, used as the method tag
+     * @param providerBeanName bean name of the configuration provider of the limit
+     * @return meters of the limit, which record nothing when metrics are disabled
+     */
+    public LimitMeters limitMeters(String source, String providerBeanName) {
+        return meterRegistry != null
+                ? new LimitMeters(this, meterRegistry, Tags.of("method", source, "provider", providerBeanName), maxKeyTags > 0)
+                : LimitMeters.NOOP;
+    }
+
+    /**
+     * Binds the limit, the calls in flight and the rejected calls of the concurrency limiter of
+     * a method.
+     *
+     * @param method             method limited in CONCURRENCY mode
+     * @param concurrencyLimiter concurrency limiter of the method
+     */
+    public void bindConcurrencyLimiter(Method method, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        if (meterRegistry == null) {
+            return;
+        }
+        Tags tags = Tags.of("method", methodTag(method));
+        Gauge.builder("ratelimiter.concurrency.limit", concurrencyLimiter, AdaptiveConcurrencyLimiter::getLimit)
+                .tags(tags).register(meterRegistry);
+        Gauge.builder("ratelimiter.concurrency.inflight", concurrencyLimiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .tags(tags).register(meterRegistry);
+        FunctionCounter.builder("ratelimiter.concurrency.rejected", concurrencyLimiter, AdaptiveConcurrencyLimiter::getRejected)
+                .tags(tags).register(meterRegistry);
+    }
+
+    /**
+     * Binds the hit ratio, size and evictions of the local config cache of every provider.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (meterRegistry == null) {
+            return;
+        }
+        for (String beanName : beanFactory.getBeanNamesForType(RateLimitConfigProvider.class)) {
+            RateLimitConfigProvider<?> rateLimitConfigProvider = beanFactory.getBean(beanName, RateLimitConfigProvider.class);
+            Cache<String, ?> configCache = rateLimitConfigProvider.getConfigCache();
+            if (configCache != null) {
+                CaffeineCacheMetrics.monitor(meterRegistry, configCache, "ratelimiter.config", Tags.of("provider", beanName));
+            }
+        }
+    }
+
+    /**
+     * Keys are used as a tag only for the first maxKeyTags distinct keys, every other key is
+     * counted under {@value #OTHER_KEY} so that a high cardinality key space does not blow up
+     * the registry.
+     *
+     * @param key Rate Limit key
+     * @return true when the key may be used as a tag
+     */
+    boolean admitKeyTag(String key) {
+        if (taggedKeys.contains(key)) {
+            return true;
+        }
+        if (taggedKeys.size() >= maxKeyTags) {
+            return false;
+        }
+        taggedKeys.add(key);
+        return true;
+    }
+
+    private static String methodTag(Method method) {
+        return method.getDeclaringClass().getSimpleName() + "." + method.getName();
+    }
+}
@@ -0,0 +1,26 @@
+package com.payufin.integration.ratelimiter.models;
+
+/**
+ * Algorithm used to limit a key, picked through {@link RateLimiterDto#getAlgorithm()}.
+ */
+
+public enum RateLimitAlgorithm {
+
+    /**
+     * Bucket of maxLimit tokens refilled in full at the start of every time unit. Allows a burst
+     * of up to twice the limit around the edge of a time unit.
+     */
+    TOKEN_BUCKET,
+
+    /**
+     * Generic cell rate algorithm: requests are spaced by time unit / maxLimit, with a burst of up
+     * to maxLimit. Only the theoretical arrival time of the next request is stored per key.
+     */
+    GCRA,
+
+    /**
+     * Sliding window counter: the count of the current time unit plus the count of the previous
+     * one weighted by how much of it the sliding window still covers. Two counters are stored per key.
+     */
+    SLIDING_WINDOW
+}
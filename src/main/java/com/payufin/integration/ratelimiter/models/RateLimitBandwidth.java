@@ -0,0 +1,67 @@
+package com.payufin.integration.ratelimiter.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Additional limit of a key, e.g. a burst limit per second on top of a sustained limit per hour.
+ */
+
+@Builder(toBuilder = true)
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RateLimitBandwidth {
+
+    long capacity;
+
+    /**
+     * Tokens added every period, capacity when 0.
+     */
+    long refillTokens;
+
+    /**
+     * Number of time units in a refill period, 1 when 0.
+     */
+    long period;
+
+    ChronoUnit timeUnit;
+
+    /**
+     * Refills the tokens one by one over the period when true, all of them at the end of every
+     * period otherwise, like maxLimit.
+     */
+    boolean greedy;
+
+    public long getRefillTokens() {
+        return refillTokens > 0 ? refillTokens : capacity;
+    }
+
+    public Duration getRefillPeriod() {
+        return Duration.of(period > 0 ? period : 1, timeUnit);
+    }
+
+    /**
+     * Splits the limit like maxLimit: every part gets an equal share and the first parts one more
+     * token each, until the remainder is used up.
+     *
+     * @param parts number of parts the limit is split into
+     * @param part  index of the part, from 0
+     * @return share of the given part of the limit, at least one token
+     */
+    public RateLimitBandwidth dividedBy(int parts, int part) {
+        return toBuilder()
+                .capacity(shareOf(capacity, parts, part))
+                .refillTokens(shareOf(getRefillTokens(), parts, part))
+                .build();
+    }
+
+    private static long shareOf(long tokens, int parts, int part) {
+        return Math.max(1, tokens / parts + (part < tokens % parts ? 1 : 0));
+    }
+}
@@ -0,0 +1,59 @@
+package com.payufin.integration.ratelimiter.models;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory footprint of the bucket keys in Redis, per kind of bucket state. The memory of a key
+ * space is estimated from the memory and TTL of a sample of its keys.
+ */
+
+@Data
+public class RateLimitMemoryReport {
+
+    private List<KeySpace> keySpaces = new ArrayList<>();
+
+    public long getKeys() {
+        return keySpaces.stream().mapToLong(KeySpace::getKeys).sum();
+    }
+
+    public long getEstimatedBytes() {
+        return keySpaces.stream().mapToLong(KeySpace::getEstimatedBytes).sum();
+    }
+
+    @Data
+    public static class KeySpace {
+
+        /**
+         * Kind of bucket state, e.g. bucket4j or gcra.
+         */
+        private final String name;
+
+        private final String keyPrefix;
+
+        private long keys;
+
+        private long sampledKeys;
+
+        private long sampledBytes;
+
+        /**
+         * Sum of the remaining TTL of the sampled keys, 0 for a key without TTL.
+         */
+        private long sampledTtlMillis;
+
+        public long getAverageBytes() {
+            return sampledKeys > 0 ? sampledBytes / sampledKeys : 0;
+        }
+
+        public long getEstimatedBytes() {
+            return getAverageBytes() * keys;
+        }
+
+        public long getAverageTtlMillis() {
+            return sampledKeys > 0 ? sampledTtlMillis / sampledKeys : 0;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.payufin.integration.ratelimiter.models;
+
+/**
+ * What a RateLimit annotation limits, picked through its mode.
+ */
+
+public enum RateLimitMode {
+
+    /**
+     * Rate of the calls of every key, by the Rate Limiter Object of the key.
+     */
+    RATE,
+
+    /**
+     * Calls of the method in flight on this node, by a limit adjusted to the latency of the
+     * method. No Rate Limiter Object is needed.
+     */
+    CONCURRENCY
+}
@@ -6,6 +6,8 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Author - lakshya.jain <br>
@@ -15,7 +17,7 @@ import java.time.temporal.ChronoUnit;
  * Generic Rate limiter object which we are using in this library.
  */
 
-@Builder
+@Builder(toBuilder = true)
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -25,4 +27,52 @@ public class RateLimiterDto {
     boolean active;
     int maxLimit;
     ChronoUnit timeUnit;
+
+    /**
+     * Number of tokens a node may consume locally before synchronizing with the shared bucket,
+     * which is also the bound of over-admission per node. 0 checks every request against Redis.
+     */
+    int leaseSize;
+
+    /**
+     * Maximum time in millis a node may serve leased tokens without synchronizing with the
+     * shared bucket. 0 falls back to rate-limiter.lease.timeoutMillis.
+     */
+    long leaseTimeoutMillis;
+
+    /**
+     * Algorithm used to limit the key, token bucket when not given.
+     */
+    RateLimitAlgorithm algorithm;
+
+    /**
+     * Number of sub-buckets the limit is split into, each with an equal share of maxLimit, so that
+     * a hot key is spread over several Redis keys. 0 or 1 keeps a single bucket.
+     */
+    int shards;
+
+    /**
+     * Additional limits of the key, consumed together with maxLimit per timeUnit. Token bucket only.
+     */
+    List<RateLimitBandwidth> bandwidths;
+
+    /**
+     * @param parts number of parts the limits of the key are split into
+     * @param part  index of the part, from 0
+     * @return additional limits of the given part, null when there are none
+     */
+    public List<RateLimitBandwidth> bandwidthsDividedBy(int parts, int part) {
+        if (bandwidths == null) {
+            return null;
+        }
+        List<RateLimitBandwidth> dividedBandwidths = new ArrayList<>(bandwidths.size());
+        for (RateLimitBandwidth bandwidth : bandwidths) {
+            dividedBandwidths.add(bandwidth.dividedBy(parts, part));
+        }
+        return dividedBandwidths;
+    }
+
+    public RateLimitAlgorithm getAlgorithm() {
+        return algorithm != null ? algorithm : RateLimitAlgorithm.TOKEN_BUCKET;
+    }
 }
@@ -0,0 +1,130 @@
+package com.payufin.integration.ratelimiter.services;
+
+import com.payufin.integration.ratelimiter.configs.RateLimitConcurrencyProperties;
+import com.payufin.integration.ratelimiter.exceptions.ConcurrencyLimitExceededException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Limits the calls of a method in flight on this node, with a limit adjusted by AIMD from the
+ * latency of the calls. A call taking longer than latencyTolerance times the average latency of
+ * the method is a sign that the method, or what it calls, is saturated: the limit is then cut by
+ * backoffRatio, at most once per round of calls, so that the calls which were already in flight do
+ * not cut it again. While the calls are fast and use at least half of the limit, every call raises
+ * the limit by 1 / limit, about one more call per round. The limit stays within minLimit and maxLimit.
+ * <p>
+ * The state is kept in atomics and never locked. The average latency is an exponential moving
+ * average whose concurrent updates may overwrite each other, which only makes it slightly slower.
+ */
+
+public final class AdaptiveConcurrencyLimiter {
+
+    private final String name;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double backoffRatio;
+
+    private final double latencyTolerance;
+
+    private final double smoothing;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Bits of the limit, a double so that it can grow by a fraction of a call.
+     */
+    private final AtomicLong limitBits;
+
+    /**
+     * {@link System#nanoTime()} of the last cut of the limit.
+     */
+    private final AtomicLong lastBackoffNanos;
+
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile double averageLatencyNanos = -1;
+
+    public AdaptiveConcurrencyLimiter(String name, RateLimitConcurrencyProperties properties) {
+        this.name = name;
+        this.minLimit = Math.max(1, properties.getMinLimit());
+        this.maxLimit = Math.max(minLimit, properties.getMaxLimit());
+        this.backoffRatio = properties.getBackoffRatio();
+        this.latencyTolerance = properties.getLatencyTolerance();
+        this.smoothing = 1.0 / Math.max(1, properties.getLatencyWindow());
+        this.limitBits = new AtomicLong(Double.doubleToRawLongBits(Math.min(maxLimit, Math.max(minLimit, properties.getInitialLimit()))));
+        this.lastBackoffNanos = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Takes a slot for a call, which has to be given back with {@link #release(long)} or
+     * {@link #releaseIgnored()}.
+     *
+     * @return {@link System#nanoTime()} at which the call started
+     * @throws ConcurrencyLimitExceededException when the limit of calls in flight is reached
+     */
+    public long acquire() {
+        int limit = getLimit();
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                throw new ConcurrencyLimitExceededException(name, limit, (long) Math.max(averageLatencyNanos, 0));
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return System.nanoTime();
+    }
+
+    /**
+     * Gives back the slot of a completed call and adjusts the limit to its latency.
+     *
+     * @param startNanos {@link System#nanoTime()} at which the call started, e.g. the value returned by {@link #acquire()}
+     */
+    public void release(long startNanos) {
+        int callsInFlight = inFlight.getAndDecrement();
+        long nowNanos = System.nanoTime();
+        long latencyNanos = nowNanos - startNanos;
+        double averageLatency = averageLatencyNanos;
+        averageLatencyNanos = averageLatency < 0 ? latencyNanos : averageLatency + (latencyNanos - averageLatency) * smoothing;
+
+        if (averageLatency >= 0 && latencyNanos > averageLatency * latencyTolerance) {
+            long lastBackoff = lastBackoffNanos.get();
+            // Calls started before the last cut saw the previous limit.
+            if (startNanos - lastBackoff > 0 && lastBackoffNanos.compareAndSet(lastBackoff, nowNanos)) {
+                updateLimit(limit -> Math.max(minLimit, limit * backoffRatio));
+            }
+        } else if (callsInFlight * 2 >= getLimit()) {
+            updateLimit(limit -> Math.min(maxLimit, limit + 1 / limit));
+        }
+    }
+
+    /**
+     * Gives back the slot of a call which did not complete, e.g. a cancelled one, without
+     * adjusting the limit.
+     */
+    public void releaseIgnored() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limitBits.get());
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private void updateLimit(DoubleUnaryOperator update) {
+        limitBits.updateAndGet(bits -> Double.doubleToRawLongBits(update.applyAsDouble(Double.longBitsToDouble(bits))));
+    }
+}
@@ -1,8 +1,11 @@
 package com.payufin.integration.ratelimiter.services;
 
+import com.payufin.integration.ratelimiter.models.RateLimitAlgorithm;
+import com.payufin.integration.ratelimiter.models.RateLimitBandwidth;
 import com.payufin.integration.ratelimiter.models.RateLimiterDto;
 import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.ConfigurationBuilder;
 import io.github.bucket4j.Refill;
 import org.springframework.stereotype.Service;
 
@@ -21,12 +24,55 @@ import java.util.function.Supplier;
 public class BucketConfigService {
 
     public Supplier<BucketConfiguration> getConfigSupplierObject(RateLimiterDto rateLimiterDto) {
-        Refill refill = Refill.intervally(rateLimiterDto.getMaxLimit(),
-                Duration.of(1, rateLimiterDto.getTimeUnit()));
+        BucketConfiguration bucketConfiguration = getBucketConfiguration(rateLimiterDto);
+        return () -> bucketConfiguration;
+    }
+
+    /**
+     * Bucket4j configuration of the Rate Limiter Object. GCRA is a token bucket refilled greedily,
+     * which is also the closest Bucket4j form of the sliding window counter; the Redis native
+     * forms of both are implemented by the rate limit script of the Redis backends. The additional
+     * bandwidths of a token bucket are consumed together with maxLimit in the same bucket.
+     *
+     * @param rateLimiterDto Rate Limiter Object
+     * @return bucket configuration
+     */
+    public BucketConfiguration getBucketConfiguration(RateLimiterDto rateLimiterDto) {
+        Duration period = Duration.of(1, rateLimiterDto.getTimeUnit());
+        Refill refill = rateLimiterDto.getAlgorithm() == RateLimitAlgorithm.TOKEN_BUCKET
+                ? Refill.intervally(rateLimiterDto.getMaxLimit(), period)
+                : Refill.greedy(rateLimiterDto.getMaxLimit(), period);
         Bandwidth limit = Bandwidth.classic(rateLimiterDto.getMaxLimit(), refill);
-        return () -> (BucketConfiguration.builder()
-                .addLimit(limit)
-                .build());
+        ConfigurationBuilder configurationBuilder = BucketConfiguration.builder()
+                .addLimit(limit);
+        if (rateLimiterDto.getAlgorithm() == RateLimitAlgorithm.TOKEN_BUCKET && rateLimiterDto.getBandwidths() != null) {
+            for (RateLimitBandwidth bandwidth : rateLimiterDto.getBandwidths()) {
+                Refill bandwidthRefill = bandwidth.isGreedy()
+                        ? Refill.greedy(bandwidth.getRefillTokens(), bandwidth.getRefillPeriod())
+                        : Refill.intervally(bandwidth.getRefillTokens(), bandwidth.getRefillPeriod());
+                configurationBuilder.addLimit(Bandwidth.classic(bandwidth.getCapacity(), bandwidthRefill));
+            }
+        }
+        return configurationBuilder.build();
+    }
+
+    /**
+     * Time for an empty bucket to refill up to the capacity of all its bandwidths. A bucket
+     * left untouched for that long is full again, the same as a new bucket.
+     *
+     * @param bucketConfiguration bucket configuration
+     * @return time to refill the bucket
+     */
+    public Duration getFullRefillDuration(BucketConfiguration bucketConfiguration) {
+        long fullRefillNanos = 0;
+        for (Bandwidth bandwidth : bucketConfiguration.getBandwidths()) {
+            double periods = (double) bandwidth.getCapacity() / bandwidth.getRefillTokens();
+            if (bandwidth.isRefillIntervally()) {
+                periods = Math.ceil(periods);
+            }
+            fullRefillNanos = Math.max(fullRefillNanos, (long) Math.ceil(periods * bandwidth.getRefillPeriodNanos()));
+        }
+        return Duration.ofNanos(fullRefillNanos);
     }
 
 }
@@ -0,0 +1,82 @@
+package com.payufin.integration.ratelimiter.services;
+
+import com.payufin.integration.ratelimiter.configs.RateLimitConfigProvider;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.listener.StatusListener;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+/**
+ * Propagates the changes of Rate Limiter Objects to all the nodes. A changed key is evicted from
+ * the local config cache of every {@link RateLimitConfigProvider} and from the buckets kept in
+ * memory, on this node right away and on the other nodes through a Redis pub/sub topic. With the
+ * in-memory backend there is no topic and only this node is invalidated.
+ * <p>
+ * Pub/sub does not keep messages for a node which is disconnected, so every (re)subscription to
+ * the topic evicts the whole local config cache, and the TTL of the cache stays as the last bound.
+ */
+
+@Slf4j
+@Service
+public class RateLimitConfigInvalidator {
+
+    private final ObjectProvider<RateLimitConfigProvider<?>> rateLimitConfigProviders;
+
+    private final RateLimiterService rateLimiterService;
+
+    private final RTopic invalidationTopic;
+
+    @Autowired
+    public RateLimitConfigInvalidator(ObjectProvider<RateLimitConfigProvider<?>> rateLimitConfigProviders, RateLimiterService rateLimiterService,
+                                      @Qualifier("rateLimiterInvalidationTopic") ObjectProvider<RTopic> invalidationTopic) {
+        this.rateLimitConfigProviders = rateLimitConfigProviders;
+        this.rateLimiterService = rateLimiterService;
+        this.invalidationTopic = invalidationTopic.getIfAvailable();
+        if (this.invalidationTopic != null) {
+            subscribe(this.invalidationTopic);
+        }
+    }
+
+    /**
+     * Evicts the given key on all the nodes. The event is published without waiting for Redis,
+     * and a failure to publish is only logged, as the change is already saved in the source.
+     *
+     * @param key Rate Limit key
+     */
+    public void invalidate(String key) {
+        evictLocally(key);
+        if (invalidationTopic != null) {
+            invalidationTopic.publishAsync(key).onComplete((receivers, ex) -> {
+                if (ex != null) {
+                    log.warn("Could not publish the invalidation of Rate Limit key {}", key, ex);
+                }
+            });
+        }
+    }
+
+    private void subscribe(RTopic topic) {
+        topic.addListenerAsync(String.class, (channel, key) -> evictLocally(key));
+        topic.addListenerAsync(new StatusListener() {
+            @Override
+            public void onSubscribe(String channel) {
+                // Invalidations published while this node was not subscribed are lost.
+                rateLimitConfigProviders.forEach(RateLimitConfigProvider::evictAllRateLimiterDtos);
+            }
+
+            @Override
+            public void onUnsubscribe(String channel) {
+                log.warn("Unsubscribed from the Rate Limit invalidation topic {}", channel);
+            }
+        });
+    }
+
+    private void evictLocally(String key) {
+        for (RateLimitConfigProvider<?> rateLimitConfigProvider : rateLimitConfigProviders) {
+            rateLimitConfigProvider.evictRateLimiterDto(key);
+        }
+        rateLimiterService.evictBucket(key);
+    }
+}
@@ -0,0 +1,87 @@
+package com.payufin.integration.ratelimiter.services;
+
+import com.payufin.integration.ratelimiter.models.RateLimitMemoryReport;
+import org.redisson.RedissonKeys;
+import org.redisson.api.RKeys;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.client.protocol.RedisCommands;
+import org.redisson.command.CommandAsyncExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Service;
+
+/**
+ * Reports the memory used in Redis by the bucket keys of the Redis backends. The keys are counted
+ * with SCAN over all the masters, and MEMORY USAGE and PTTL are read for the first keys of every
+ * key space only, so the report costs one pass over the keyspace plus two commands per sampled key.
+ */
+
+@Service
+@ConditionalOnExpression("'${rate-limiter.backend:redis}'.startsWith('redis')")
+public class RateLimitMemoryReporter {
+
+    private static final int SCAN_COUNT = 1000;
+
+    /**
+     * Key spaces of the bucket states, the most specific prefix first.
+     */
+    private static final String[][] KEY_SPACES = {
+            {"gcra", "ratelimiter:gcra:"},
+            {"sliding-window", "ratelimiter:sw:"},
+            {"token-bucket", "ratelimiter:"},
+            {"bucket4j", "bucket4j:"}
+    };
+
+    private static final String[] SCAN_PATTERNS = {"ratelimiter:*", "bucket4j:*"};
+
+    private final CommandAsyncExecutor commandExecutor;
+
+    @Autowired
+    public RateLimitMemoryReporter(@Qualifier("rateLimiterCommandExecutor") CommandAsyncExecutor commandExecutor) {
+        this.commandExecutor = commandExecutor;
+    }
+
+    /**
+     * @param sampleSize maximum number of keys of every key space whose memory is read
+     * @return memory report of the bucket keys
+     */
+    public RateLimitMemoryReport report(int sampleSize) {
+        RateLimitMemoryReport report = new RateLimitMemoryReport();
+        for (String[] keySpace : KEY_SPACES) {
+            report.getKeySpaces().add(new RateLimitMemoryReport.KeySpace(keySpace[0], keySpace[1]));
+        }
+        RKeys keys = new RedissonKeys(commandExecutor);
+        for (String scanPattern : SCAN_PATTERNS) {
+            for (String key : keys.getKeysByPattern(scanPattern, SCAN_COUNT)) {
+                RateLimitMemoryReport.KeySpace keySpace = keySpaceOf(report, key);
+                keySpace.setKeys(keySpace.getKeys() + 1);
+                if (keySpace.getSampledKeys() < sampleSize) {
+                    sample(keySpace, key);
+                }
+            }
+        }
+        return report;
+    }
+
+    private void sample(RateLimitMemoryReport.KeySpace keySpace, String key) {
+        Long bytes = commandExecutor.get(commandExecutor.readAsync(key, StringCodec.INSTANCE, RedisCommands.MEMORY_USAGE, key));
+        Long ttlMillis = commandExecutor.get(commandExecutor.readAsync(key, StringCodec.INSTANCE, RedisCommands.PTTL, key));
+        // The key expired or was deleted since the scan.
+        if (bytes == null || ttlMillis == null || ttlMillis == -2) {
+            return;
+        }
+        keySpace.setSampledKeys(keySpace.getSampledKeys() + 1);
+        keySpace.setSampledBytes(keySpace.getSampledBytes() + bytes);
+        keySpace.setSampledTtlMillis(keySpace.getSampledTtlMillis() + Math.max(ttlMillis, 0));
+    }
+
+    private static RateLimitMemoryReport.KeySpace keySpaceOf(RateLimitMemoryReport report, String key) {
+        for (RateLimitMemoryReport.KeySpace keySpace : report.getKeySpaces()) {
+            if (key.startsWith(keySpace.getKeyPrefix())) {
+                return keySpace;
+            }
+        }
+        throw new IllegalStateException("No key space for key " + key);
+    }
+}
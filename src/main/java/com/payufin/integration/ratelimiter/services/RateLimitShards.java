@@ -0,0 +1,128 @@
+package com.payufin.integration.ratelimiter.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.payufin.integration.ratelimiter.models.RateLimitBandwidth;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits the limit of a key into {@code shards} sub-limits, each with its own
+ * bucket under the key "key:shard:i" and an equal share of maxLimit and of the additional limits,
+ * so that the traffic of a hot key is spread over several Redis keys. Every shard needs at least
+ * one token of every limit, so there are no more shards than the tokens of the smallest limit. The sub-limits of a key are built once and rebuilt only
+ * when the Rate Limiter Object of the key changes.
+ */
+
+final class RateLimitShards {
+
+    private final Cache<String, Shards> shardsByKey;
+
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    RateLimitShards(long maxSize, long expireAfterAccessSeconds) {
+        this.shardsByKey = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(expireAfterAccessSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * @param rateLimiterDto Rate Limiter Object
+     * @return true when the limit of the key is split in more than one shard
+     */
+    static boolean isSharded(RateLimiterDto rateLimiterDto) {
+        return shardCount(rateLimiterDto) > 1;
+    }
+
+    /**
+     * Number of shards of the key, capped by the capacity and the refill tokens of its smallest
+     * limit.
+     */
+    private static int shardCount(RateLimiterDto rateLimiterDto) {
+        long shardCount = Math.min(rateLimiterDto.getShards(), rateLimiterDto.getMaxLimit());
+        if (rateLimiterDto.getBandwidths() != null) {
+            for (RateLimitBandwidth bandwidth : rateLimiterDto.getBandwidths()) {
+                shardCount = Math.min(shardCount, Math.min(bandwidth.getCapacity(), bandwidth.getRefillTokens()));
+            }
+        }
+        return (int) shardCount;
+    }
+
+    /**
+     * @param rateLimiterDto Rate Limiter Object of a sharded key
+     * @return Rate Limiter Objects of the shards of the key
+     */
+    RateLimiterDto[] shardsOf(RateLimiterDto rateLimiterDto) {
+        Shards shards = shardsByKey.getIfPresent(rateLimiterDto.getKey());
+        if (shards == null || !shards.rateLimiterDto.equals(rateLimiterDto)) {
+            shards = new Shards(rateLimiterDto);
+            shardsByKey.put(rateLimiterDto.getKey(), shards);
+        }
+        return shards.shardDtos;
+    }
+
+    /**
+     * Picks the shard of a call: by the hash of the shard key, which keeps a caller on the same
+     * shard, or round-robin when there is none.
+     *
+     * @param shardCount number of shards
+     * @param shardKey   value identifying the caller, may be null
+     * @return index of the shard
+     */
+    int indexOf(int shardCount, Object shardKey) {
+        int hash = shardKey != null ? spread(shardKey.hashCode()) : roundRobin.getAndIncrement();
+        return Math.floorMod(hash, shardCount);
+    }
+
+    /**
+     * Keys of the shards of the given key, as present in the backend.
+     *
+     * @param key Rate Limit key
+     * @return shard keys, empty when the key is not known as sharded
+     */
+    String[] shardKeysOf(String key) {
+        Shards shards = shardsByKey.getIfPresent(key);
+        if (shards == null) {
+            return new String[0];
+        }
+        String[] shardKeys = new String[shards.shardDtos.length];
+        for (int i = 0; i < shardKeys.length; i++) {
+            shardKeys[i] = shards.shardDtos[i].getKey();
+        }
+        return shardKeys;
+    }
+
+    void evict(String key) {
+        shardsByKey.invalidate(key);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Shards {
+
+        private final RateLimiterDto rateLimiterDto;
+        private final RateLimiterDto[] shardDtos;
+
+        Shards(RateLimiterDto rateLimiterDto) {
+            this.rateLimiterDto = rateLimiterDto;
+            int shardCount = shardCount(rateLimiterDto);
+            int share = rateLimiterDto.getMaxLimit() / shardCount;
+            int remainder = rateLimiterDto.getMaxLimit() % shardCount;
+            this.shardDtos = new RateLimiterDto[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                shardDtos[i] = rateLimiterDto.toBuilder()
+                        .key(rateLimiterDto.getKey() + ":shard:" + i)
+                        .maxLimit(share + (i < remainder ? 1 : 0))
+                        .leaseSize(rateLimiterDto.getLeaseSize() > 0 ? Math.max(1, rateLimiterDto.getLeaseSize() / shardCount) : 0)
+                        .bandwidths(rateLimiterDto.bandwidthsDividedBy(shardCount, i))
+                        .shards(0)
+                        .build();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.payufin.integration.ratelimiter.services;
+
+import com.payufin.integration.ratelimiter.configs.RateLimitConfigProvider;
+import com.payufin.integration.ratelimiter.configs.RateLimitWarmUpProperties;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the Rate Limiter Objects and prepares the buckets of the keys of
+ * {@link RateLimitWarmUpProperties} at startup. Application runners complete before the
+ * application is marked ready, so the first requests after a deploy find a warm config cache.
+ * A failure of the warm-up is logged and does not stop the application.
+ */
+
+@Slf4j
+@Component
+public class RateLimitWarmUp implements ApplicationRunner {
+
+    private final RateLimitWarmUpProperties rateLimitWarmUpProperties;
+
+    private final RateLimiterService rateLimiterService;
+
+    private final BeanFactory beanFactory;
+
+    @Autowired
+    public RateLimitWarmUp(RateLimitWarmUpProperties rateLimitWarmUpProperties, RateLimiterService rateLimiterService, BeanFactory beanFactory) {
+        this.rateLimitWarmUpProperties = rateLimitWarmUpProperties;
+        this.rateLimiterService = rateLimiterService;
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        for (Map.Entry<String, List<String>> providerKeys : rateLimitWarmUpProperties.getKeys().entrySet()) {
+            long startNanos = System.nanoTime();
+            try {
+                RateLimitConfigProvider<?> rateLimitConfigProvider = beanFactory.getBean(providerKeys.getKey(), RateLimitConfigProvider.class);
+                int warmedUp = warmUp(rateLimitConfigProvider, providerKeys.getValue());
+                log.info("Warmed up {} of {} Rate Limit keys of {} in {} ms", warmedUp, providerKeys.getValue().size(), providerKeys.getKey(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            } catch (RuntimeException ex) {
+                log.warn("Unable to warm up the Rate Limit keys of {}", providerKeys.getKey(), ex);
+            }
+        }
+    }
+
+    private int warmUp(RateLimitConfigProvider<?> rateLimitConfigProvider, List<String> keys) {
+        int batchSize = Math.max(1, rateLimitWarmUpProperties.getBatchSize());
+        int warmedUp = 0;
+        for (int from = 0; from < keys.size(); from += batchSize) {
+            List<String> batch = keys.subList(from, Math.min(from + batchSize, keys.size()));
+            List<RateLimiterDto> activeDtos = new ArrayList<>(batch.size());
+            for (RateLimiterDto rateLimiterDto : rateLimitConfigProvider.getRateLimiterDtos(batch).values()) {
+                if (rateLimiterDto.isActive()) {
+                    activeDtos.add(rateLimiterDto);
+                }
+            }
+            if (!activeDtos.isEmpty()) {
+                rateLimiterService.warmUp(activeDtos);
+            }
+            warmedUp += activeDtos.size();
+        }
+        return warmedUp;
+    }
+}
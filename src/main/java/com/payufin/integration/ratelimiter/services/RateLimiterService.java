@@ -1,36 +1,310 @@
 package com.payufin.integration.ratelimiter.services;
 
+import com.payufin.integration.ratelimiter.backends.RateLimitBackend;
 import com.payufin.integration.ratelimiter.models.RateLimiterDto;
 import io.github.bucket4j.Bucket;
-import io.github.bucket4j.redis.redisson.cas.RedissonBasedProxyManager;
+import io.github.bucket4j.ConsumptionProbe;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Author - lakshya.jain <br>
  * Date - 09/10/2022
  * <p>
  * <p>
- * Rate Limiter Service help to create the bucket with the given key.
+ * Rate Limiter Service help to create the bucket with the given key and consume from it,
+ * using the {@link RateLimitBackend} selected with the property rate-limiter.backend.
+ * <p>
+ * Keys with {@code shards} set are consumed from one of their shards, picked
+ * by the given shard key or round-robin, and spill over to the next shard when it is empty.
  */
 
 @Service
 public class RateLimiterService {
 
-    private final RedissonBasedProxyManager redissonBasedProxyManager;
-    private final BucketConfigService bucketConfigService;
+    private final RateLimitBackend rateLimitBackend;
+
+    private final RateLimitShards rateLimitShards;
 
     @Autowired
-    public RateLimiterService(@Qualifier("rateLimiterProxyManager") RedissonBasedProxyManager redissonBasedProxyManager, BucketConfigService bucketConfigService) {
-        this.redissonBasedProxyManager = redissonBasedProxyManager;
-        this.bucketConfigService = bucketConfigService;
+    public RateLimiterService(RateLimitBackend rateLimitBackend,
+                              @Value("${rate-limiter.bucket-cache.maxSize:100000}") long bucketCacheMaxSize,
+                              @Value("${rate-limiter.bucket-cache.expireAfterAccessSeconds:3600}") long bucketCacheExpireAfterAccessSeconds) {
+        this.rateLimitBackend = rateLimitBackend;
+        this.rateLimitShards = new RateLimitShards(bucketCacheMaxSize, bucketCacheExpireAfterAccessSeconds);
     }
 
+    /**
+     * Does not always create a new bucket, but instead returns the existing one if it exists.
+     *
+     * @param rateLimiterDto Rate Limiter Object
+     * @return bucket of the key
+     */
     public Bucket resolveBucket(RateLimiterDto rateLimiterDto) {
-        // Does not always create a new bucket, but instead returns the existing one if it exists.
-        return redissonBasedProxyManager
-                .builder()
-                .build("bucket4j:" + rateLimiterDto.getKey(), bucketConfigService.getConfigSupplierObject(rateLimiterDto));
+        return rateLimitBackend.resolveBucket(rateLimiterDto);
+    }
+
+    /**
+     * @param rateLimiterDto Rate Limiter Object
+     * @param tokens         number of tokens to consume
+     * @return consumption probe
+     */
+    public ConsumptionProbe tryConsume(RateLimiterDto rateLimiterDto, long tokens) {
+        return tryConsume(rateLimiterDto, tokens, null);
+    }
+
+    /**
+     * @param rateLimiterDto Rate Limiter Object
+     * @param tokens         number of tokens to consume
+     * @param shardKey       value picking the shard of a sharded key, round-robin when null
+     * @return consumption probe
+     */
+    public ConsumptionProbe tryConsume(RateLimiterDto rateLimiterDto, long tokens, Object shardKey) {
+        if (!RateLimitShards.isSharded(rateLimiterDto)) {
+            return rateLimitBackend.tryConsume(rateLimiterDto, tokens);
+        }
+        RateLimiterDto[] shardDtos = rateLimitShards.shardsOf(rateLimiterDto);
+        int shardIndex = rateLimitShards.indexOf(shardDtos.length, shardKey);
+        ConsumptionProbe consumptionProbe = rateLimitBackend.tryConsume(shardDtos[shardIndex], tokens);
+        if (consumptionProbe.isConsumed()) {
+            return consumptionProbe;
+        }
+        return spillOver(consumptionProbe, rateLimitBackend.tryConsume(neighbourOf(shardDtos, shardIndex), tokens));
+    }
+
+    /**
+     * @param rateLimiterDto Rate Limiter Object
+     * @param tokens         number of tokens to consume
+     * @return future of the consumption probe
+     */
+    public CompletableFuture<ConsumptionProbe> tryConsumeAsync(RateLimiterDto rateLimiterDto, long tokens) {
+        return tryConsumeAsync(rateLimiterDto, tokens, null);
+    }
+
+    /**
+     * @param rateLimiterDto Rate Limiter Object
+     * @param tokens         number of tokens to consume
+     * @param shardKey       value picking the shard of a sharded key, round-robin when null
+     * @return future of the consumption probe
+     */
+    public CompletableFuture<ConsumptionProbe> tryConsumeAsync(RateLimiterDto rateLimiterDto, long tokens, Object shardKey) {
+        if (!RateLimitShards.isSharded(rateLimiterDto)) {
+            return rateLimitBackend.tryConsumeAsync(rateLimiterDto, tokens);
+        }
+        RateLimiterDto[] shardDtos = rateLimitShards.shardsOf(rateLimiterDto);
+        int shardIndex = rateLimitShards.indexOf(shardDtos.length, shardKey);
+        return rateLimitBackend.tryConsumeAsync(shardDtos[shardIndex], tokens).thenCompose(consumptionProbe -> consumptionProbe.isConsumed()
+                ? CompletableFuture.completedFuture(consumptionProbe)
+                : rateLimitBackend.tryConsumeAsync(neighbourOf(shardDtos, shardIndex), tokens)
+                .thenApply(neighbourProbe -> spillOver(consumptionProbe, neighbourProbe)));
+    }
+
+    /**
+     * Consumes the given number of tokens from the buckets of all the given keys, all or nothing.
+     *
+     * @param rateLimiterDtos Rate Limiter Objects to consume from
+     * @param tokens          number of tokens to consume from every bucket
+     * @return consumption probes, in the order of the given Rate Limiter Objects
+     */
+    public ConsumptionProbe[] tryConsumeAll(List<RateLimiterDto> rateLimiterDtos, long tokens) {
+        return tryConsumeAll(rateLimiterDtos, tokensOf(rateLimiterDtos.size(), tokens), null);
+    }
+
+    /**
+     * @param rateLimiterDtos Rate Limiter Objects to consume from
+     * @param tokens          number of tokens to consume from every bucket
+     * @param shardKeys       values picking the shards of the sharded keys, in the order of the given
+     *                        Rate Limiter Objects, round-robin when null
+     * @return consumption probes, in the order of the given Rate Limiter Objects
+     */
+    public ConsumptionProbe[] tryConsumeAll(List<RateLimiterDto> rateLimiterDtos, long tokens, List<?> shardKeys) {
+        return tryConsumeAll(rateLimiterDtos, tokensOf(rateLimiterDtos.size(), tokens), shardKeys);
+    }
+
+    /**
+     * @param rateLimiterDtos Rate Limiter Objects to consume from
+     * @param tokens          number of tokens to consume from the bucket of every key, in the order of the
+     *                        given Rate Limiter Objects
+     * @param shardKeys       values picking the shards of the sharded keys, in the order of the given
+     *                        Rate Limiter Objects, round-robin when null
+     * @return consumption probes, in the order of the given Rate Limiter Objects
+     */
+    public ConsumptionProbe[] tryConsumeAll(List<RateLimiterDto> rateLimiterDtos, long[] tokens, List<?> shardKeys) {
+        int[] shardIndexes = shardIndexesOf(rateLimiterDtos, shardKeys);
+        if (shardIndexes == null) {
+            return rateLimitBackend.tryConsumeAll(rateLimiterDtos, tokens);
+        }
+        ConsumptionProbe[] consumptionProbes = rateLimitBackend.tryConsumeAll(toShardDtos(rateLimiterDtos, shardIndexes), tokens);
+        List<RateLimiterDto> spillOverDtos = toSpillOverDtos(rateLimiterDtos, shardIndexes, consumptionProbes);
+        return spillOverDtos == null ? consumptionProbes : spillOver(consumptionProbes, rateLimitBackend.tryConsumeAll(spillOverDtos, tokens));
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #tryConsumeAll(List, long)}.
+     *
+     * @param rateLimiterDtos Rate Limiter Objects to consume from
+     * @param tokens          number of tokens to consume from every bucket
+     * @return future of the consumption probes, in the order of the given Rate Limiter Objects
+     */
+    public CompletableFuture<ConsumptionProbe[]> tryConsumeAllAsync(List<RateLimiterDto> rateLimiterDtos, long tokens) {
+        return tryConsumeAllAsync(rateLimiterDtos, tokensOf(rateLimiterDtos.size(), tokens), null);
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #tryConsumeAll(List, long, List)}.
+     *
+     * @param rateLimiterDtos Rate Limiter Objects to consume from
+     * @param tokens          number of tokens to consume from every bucket
+     * @param shardKeys       values picking the shards of the sharded keys, round-robin when null
+     * @return future of the consumption probes, in the order of the given Rate Limiter Objects
+     */
+    public CompletableFuture<ConsumptionProbe[]> tryConsumeAllAsync(List<RateLimiterDto> rateLimiterDtos, long tokens, List<?> shardKeys) {
+        return tryConsumeAllAsync(rateLimiterDtos, tokensOf(rateLimiterDtos.size(), tokens), shardKeys);
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #tryConsumeAll(List, long[], List)}.
+     *
+     * @param rateLimiterDtos Rate Limiter Objects to consume from
+     * @param tokens          number of tokens to consume from the bucket of every key
+     * @param shardKeys       values picking the shards of the sharded keys, round-robin when null
+     * @return future of the consumption probes, in the order of the given Rate Limiter Objects
+     */
+    public CompletableFuture<ConsumptionProbe[]> tryConsumeAllAsync(List<RateLimiterDto> rateLimiterDtos, long[] tokens, List<?> shardKeys) {
+        int[] shardIndexes = shardIndexesOf(rateLimiterDtos, shardKeys);
+        if (shardIndexes == null) {
+            return rateLimitBackend.tryConsumeAllAsync(rateLimiterDtos, tokens);
+        }
+        return rateLimitBackend.tryConsumeAllAsync(toShardDtos(rateLimiterDtos, shardIndexes), tokens).thenCompose(consumptionProbes -> {
+            List<RateLimiterDto> spillOverDtos = toSpillOverDtos(rateLimiterDtos, shardIndexes, consumptionProbes);
+            return spillOverDtos == null
+                    ? CompletableFuture.completedFuture(consumptionProbes)
+                    : rateLimitBackend.tryConsumeAllAsync(spillOverDtos, tokens)
+                    .thenApply(spillOverProbes -> spillOver(consumptionProbes, spillOverProbes));
+        });
+    }
+
+    /**
+     * Drops whatever the backend keeps in memory for the given key, and for its shards.
+     *
+     * @param key Rate Limit key
+     */
+    public void evictBucket(String key) {
+        for (String shardKey : rateLimitShards.shardKeysOf(key)) {
+            rateLimitBackend.evict(shardKey);
+        }
+        rateLimitShards.evict(key);
+        rateLimitBackend.evict(key);
+    }
+
+    /**
+     * Prepares the buckets of the given keys, and of their shards, without consuming from them.
+     *
+     * @param rateLimiterDtos Rate Limiter Objects
+     */
+    public void warmUp(List<RateLimiterDto> rateLimiterDtos) {
+        List<RateLimiterDto> bucketDtos = new ArrayList<>(rateLimiterDtos.size());
+        for (RateLimiterDto rateLimiterDto : rateLimiterDtos) {
+            if (RateLimitShards.isSharded(rateLimiterDto)) {
+                bucketDtos.addAll(Arrays.asList(rateLimitShards.shardsOf(rateLimiterDto)));
+            } else {
+                bucketDtos.add(rateLimiterDto);
+            }
+        }
+        rateLimitBackend.warmUp(bucketDtos);
+    }
+
+    /**
+     * @return shard picked for every sharded key, -1 for the other keys, null when no key is sharded
+     */
+    private int[] shardIndexesOf(List<RateLimiterDto> rateLimiterDtos, List<?> shardKeys) {
+        int[] shardIndexes = null;
+        for (int i = 0; i < rateLimiterDtos.size(); i++) {
+            RateLimiterDto rateLimiterDto = rateLimiterDtos.get(i);
+            if (RateLimitShards.isSharded(rateLimiterDto)) {
+                if (shardIndexes == null) {
+                    shardIndexes = new int[rateLimiterDtos.size()];
+                    Arrays.fill(shardIndexes, -1);
+                }
+                shardIndexes[i] = rateLimitShards.indexOf(rateLimitShards.shardsOf(rateLimiterDto).length,
+                        shardKeys != null ? shardKeys.get(i) : null);
+            }
+        }
+        return shardIndexes;
+    }
+
+    private List<RateLimiterDto> toShardDtos(List<RateLimiterDto> rateLimiterDtos, int[] shardIndexes) {
+        List<RateLimiterDto> shardDtos = new ArrayList<>(rateLimiterDtos.size());
+        for (int i = 0; i < rateLimiterDtos.size(); i++) {
+            shardDtos.add(shardIndexes[i] < 0 ? rateLimiterDtos.get(i) : rateLimitShards.shardsOf(rateLimiterDtos.get(i))[shardIndexes[i]]);
+        }
+        return shardDtos;
+    }
+
+    /**
+     * A call rejected only by the shards of sharded keys is tried once more on the next shard of
+     * those keys. Nothing was consumed by the rejected call, as the keys are consumed all or nothing.
+     *
+     * @return Rate Limiter Objects of the second try, null when there is nothing to spill over
+     */
+    private List<RateLimiterDto> toSpillOverDtos(List<RateLimiterDto> rateLimiterDtos, int[] shardIndexes, ConsumptionProbe[] consumptionProbes) {
+        boolean spillOver = false;
+        for (int i = 0; i < consumptionProbes.length; i++) {
+            if (!consumptionProbes[i].isConsumed()) {
+                if (shardIndexes[i] < 0) {
+                    return null;
+                }
+                spillOver = true;
+            }
+        }
+        if (!spillOver) {
+            return null;
+        }
+        List<RateLimiterDto> spillOverDtos = new ArrayList<>(rateLimiterDtos.size());
+        for (int i = 0; i < rateLimiterDtos.size(); i++) {
+            if (shardIndexes[i] < 0) {
+                spillOverDtos.add(rateLimiterDtos.get(i));
+            } else {
+                RateLimiterDto[] shardDtos = rateLimitShards.shardsOf(rateLimiterDtos.get(i));
+                spillOverDtos.add(consumptionProbes[i].isConsumed() ? shardDtos[shardIndexes[i]] : neighbourOf(shardDtos, shardIndexes[i]));
+            }
+        }
+        return spillOverDtos;
+    }
+
+    private static long[] tokensOf(int size, long tokens) {
+        long[] allTokens = new long[size];
+        Arrays.fill(allTokens, tokens);
+        return allTokens;
+    }
+
+    private static RateLimiterDto neighbourOf(RateLimiterDto[] shardDtos, int shardIndex) {
+        return shardDtos[(shardIndex + 1) % shardDtos.length];
+    }
+
+    /**
+     * @return probe of the neighbour shard when it consumed, otherwise the probe which has to
+     * wait the least for a refill
+     */
+    private static ConsumptionProbe spillOver(ConsumptionProbe consumptionProbe, ConsumptionProbe neighbourProbe) {
+        return neighbourProbe.isConsumed() || neighbourProbe.getNanosToWaitForRefill() < consumptionProbe.getNanosToWaitForRefill()
+                ? neighbourProbe : consumptionProbe;
+    }
+
+    private static ConsumptionProbe[] spillOver(ConsumptionProbe[] consumptionProbes, ConsumptionProbe[] spillOverProbes) {
+        if (RateLimitBackend.allConsumed(spillOverProbes)) {
+            return spillOverProbes;
+        }
+        ConsumptionProbe[] mergedProbes = new ConsumptionProbe[consumptionProbes.length];
+        for (int i = 0; i < consumptionProbes.length; i++) {
+            mergedProbes[i] = consumptionProbes[i].isConsumed() ? spillOverProbes[i] : spillOver(consumptionProbes[i], spillOverProbes[i]);
+        }
+        return mergedProbes;
     }
 }
@@ -11,6 +11,7 @@ public class constants {
     public static String KEY_NOT_FOUND = "Rate Limit key not found in the cache and the DB";
     public static String EMPTY_STRING = "";
     public static String RATE_LIMIT_EXCEEDED = "Rate Limit exceeded";
+    public static String CONCURRENCY_LIMIT_EXCEEDED = "Concurrency Limit exceeded";
 
 
 }
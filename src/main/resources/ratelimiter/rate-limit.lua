@@ -0,0 +1,295 @@
+-- Consumes tokens from the limits of all the given keys, all or nothing, in one round trip.
+--
+-- KEYS    : limit keys
+-- ARGV[1] : maximum expiry of the token bucket state in milliseconds
+-- ARGV[2] : C to consume, P to only tell what consuming would return, without writing any state, F to consume
+--           ignoring the limits, which go below zero or, for the token bucket, above the capacity
+-- ARGV[3..] for every key : tokens to consume, negative to give tokens back, then the algorithm
+--           followed by its parameters
+--           T (token bucket)    : number of bandwidths, then for every bandwidth capacity, initial tokens,
+--                                 refill tokens, refill period in microseconds, greedy (1) or intervally (0)
+--           G (GCRA)            : limit, period in microseconds
+--           S (sliding window)  : limit, window in microseconds
+--
+-- Times are microseconds of the Redis clock, so that the nodes do not need synchronized clocks.
+-- Returns for every key : consumed (1/0), remaining tokens, nanos to wait for refill, nanos to wait for reset.
+-- A wait of -1 means the tokens can never be available, as they exceed the limit. With F the wait for refill
+-- is the wait until the limit is no longer below zero.
+
+redis.replicate_commands()
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000000 + tonumber(time[2])
+local ttl = tonumber(ARGV[1])
+local peek = ARGV[2] == 'P'
+local force = ARGV[2] == 'F'
+local arg = 3
+
+local function nextArg()
+    arg = arg + 1
+    return ARGV[arg - 1]
+end
+
+-- Token bucket, stored as "tokens:lastRefill" per bandwidth, joined by ",". The state expires once the
+-- bucket is full again, as a full bucket is the same as a new one.
+local tokenBucket = {}
+
+-- Stores whole tokens only: the fraction of a token refilled greedily is kept as time instead, by moving
+-- the last refill back, which keeps the state short.
+local function encodeBandwidth(bandwidth)
+    local available = bandwidth.available
+    local lastRefill = bandwidth.lastRefill
+    local whole = math.floor(available)
+    if bandwidth.greedy and whole ~= available then
+        lastRefill = lastRefill - math.floor((available - whole) * bandwidth.period / bandwidth.refillTokens)
+        available = whole
+    end
+    return string.format('%d:%d', available, lastRefill)
+end
+
+-- Micros until the bandwidth holding the given available tokens holds the required ones.
+local function bandwidthWait(bandwidth, available, required)
+    local deficit = required - available
+    if deficit <= 0 then
+        return 0
+    end
+    if required > bandwidth.capacity then
+        return -1
+    end
+    if bandwidth.greedy then
+        return math.ceil(deficit * bandwidth.period / bandwidth.refillTokens)
+    end
+    local periods = math.ceil(deficit / bandwidth.refillTokens)
+    return bandwidth.lastRefill + periods * bandwidth.period - now
+end
+
+function tokenBucket.check(key, tokens)
+    local count = tonumber(nextArg())
+    local stored = {}
+    local state = redis.call('GET', key)
+    if state then
+        for available, lastRefill in string.gmatch(state, '([^:,]+):([^:,]+)') do
+            stored[#stored + 1] = { tonumber(available), tonumber(lastRefill) }
+        end
+    end
+    if #stored ~= count then
+        stored = {}
+    end
+
+    local limit = { tokens = tokens, bandwidths = {}, consumed = true, fresh = #stored == 0, newWhenFull = true }
+    for b = 1, count do
+        local bandwidth = {
+            capacity = tonumber(nextArg()),
+            initialTokens = tonumber(nextArg()),
+            refillTokens = tonumber(nextArg()),
+            period = tonumber(nextArg()),
+            greedy = nextArg() == '1'
+        }
+        if bandwidth.initialTokens < bandwidth.capacity then
+            limit.newWhenFull = false
+        end
+        if stored[b] then
+            bandwidth.available = stored[b][1]
+            bandwidth.lastRefill = stored[b][2]
+        else
+            bandwidth.available = bandwidth.initialTokens
+            bandwidth.lastRefill = now
+        end
+
+        local before = bandwidth.available
+        local elapsed = now - bandwidth.lastRefill
+        if elapsed > 0 then
+            if bandwidth.greedy then
+                bandwidth.available = bandwidth.available + elapsed * bandwidth.refillTokens / bandwidth.period
+                bandwidth.lastRefill = now
+            else
+                local periods = math.floor(elapsed / bandwidth.period)
+                bandwidth.available = bandwidth.available + periods * bandwidth.refillTokens
+                bandwidth.lastRefill = bandwidth.lastRefill + periods * bandwidth.period
+            end
+        end
+        if bandwidth.available > bandwidth.capacity then
+            -- Tokens forced above the capacity are kept, but nothing is refilled on top of them.
+            bandwidth.available = math.max(before, bandwidth.capacity)
+        end
+        if not force and tokens >= 0 and bandwidth.available < tokens then
+            limit.consumed = false
+        end
+        limit.bandwidths[b] = bandwidth
+    end
+    return limit
+end
+
+function tokenBucket.finish(key, limit, allConsumed)
+    local tokens = limit.tokens
+    local remaining
+    local refillWait = 0
+    local resetWait = 0
+    local parts = {}
+    for b, bandwidth in ipairs(limit.bandwidths) do
+        if allConsumed then
+            local ceiling = math.max(bandwidth.available, bandwidth.capacity)
+            bandwidth.available = bandwidth.available - tokens
+            if not force and bandwidth.available > ceiling then
+                bandwidth.available = ceiling
+            end
+        end
+        parts[b] = encodeBandwidth(bandwidth)
+        local left = limit.consumed and not allConsumed and bandwidth.available - tokens or bandwidth.available
+        if remaining == nil or left < remaining then
+            remaining = left
+        end
+        if force then
+            local wait = bandwidthWait(bandwidth, bandwidth.available, 0)
+            if wait > refillWait then
+                refillWait = wait
+            end
+        elseif not limit.consumed then
+            local wait = bandwidthWait(bandwidth, bandwidth.available, tokens)
+            if wait < 0 or refillWait < 0 then
+                refillWait = -1
+            elseif wait > refillWait then
+                refillWait = wait
+            end
+        end
+        local reset = bandwidthWait(bandwidth, left, bandwidth.capacity)
+        if reset > resetWait then
+            resetWait = reset
+        end
+        if left > bandwidth.capacity then
+            limit.newWhenFull = false
+        end
+    end
+    -- Refill is a function of time, so a rejected call only has to store the state of a new bucket.
+    if allConsumed or (limit.fresh and not peek) then
+        local expiry = ttl
+        if limit.newWhenFull then
+            expiry = math.min(ttl, math.ceil(resetWait / 1000) + 1)
+        end
+        redis.call('SET', key, table.concat(parts, ','), 'PX', expiry)
+    end
+    return remaining or 0, refillWait, resetWait
+end
+
+-- GCRA, stored as the theoretical arrival time of the next request. A request is allowed when the
+-- theoretical arrival time, pushed by one emission interval per token, stays within one period from now.
+local gcra = {}
+
+function gcra.check(key, tokens)
+    local limit = { tokens = tokens, limit = tonumber(nextArg()), period = tonumber(nextArg()) }
+    limit.interval = limit.period / limit.limit
+    limit.tat = math.max(tonumber(redis.call('GET', key)) or now, now)
+    limit.newTat = limit.tat + tokens * limit.interval
+    limit.consumed = force or tokens < 0 or (tokens <= limit.limit and limit.newTat - limit.period <= now)
+    return limit
+end
+
+function gcra.finish(key, limit, allConsumed)
+    local tokens = limit.tokens
+    if allConsumed and limit.newTat <= now then
+        redis.call('DEL', key)
+    elseif allConsumed then
+        -- The state expires as soon as the limit is full again.
+        redis.call('SET', key, string.format('%d', math.ceil(limit.newTat)), 'PX', math.ceil((limit.newTat - now) / 1000) + 1)
+    end
+    local tat = limit.consumed and limit.newTat or limit.tat
+    local refillWait = 0
+    if force then
+        refillWait = math.max(limit.newTat - limit.period - now, 0)
+    elseif not limit.consumed then
+        refillWait = tokens > limit.limit and -1 or limit.newTat - limit.period - now
+    end
+    return math.floor((now + limit.period - tat) / limit.interval), refillWait, tat - now
+end
+
+-- Sliding window counter, stored as "window:current:previous" counts of the current and previous fixed
+-- windows. The previous window is weighted by the part of it still covered by the sliding window.
+local slidingWindow = {}
+
+function slidingWindow.check(key, tokens)
+    local limit = { tokens = tokens, limit = tonumber(nextArg()), window = tonumber(nextArg()), current = 0, previous = 0 }
+    limit.index = math.floor(now / limit.window)
+    local state = redis.call('GET', key)
+    if state then
+        local index, current, previous = string.match(state, '^(%d+):([^:]+):([^:]+)$')
+        index = tonumber(index)
+        if index == limit.index then
+            limit.current = tonumber(current)
+            limit.previous = tonumber(previous)
+        elseif index == limit.index - 1 then
+            limit.previous = tonumber(current)
+        end
+    end
+    limit.elapsed = now - limit.index * limit.window
+    limit.estimate = limit.previous * (1 - limit.elapsed / limit.window) + limit.current
+    limit.consumed = force or tokens < 0 or limit.estimate + tokens <= limit.limit
+    return limit
+end
+
+-- Micros until the tokens can be taken from the window holding the given count in its current window.
+local function windowWait(limit, current, tokens)
+    if tokens > limit.limit then
+        return -1
+    end
+    if limit.previous * (1 - limit.elapsed / limit.window) + current + tokens <= limit.limit then
+        return 0
+    end
+    local allowedPrevious = limit.limit - current - tokens
+    if allowedPrevious >= 0 and limit.previous > 0 then
+        -- Within the current window, once enough of the previous window slid out.
+        return math.ceil(limit.window * (1 - allowedPrevious / limit.previous) - limit.elapsed)
+    end
+    -- In the next window, where the current window becomes the previous one.
+    local nextElapsed = 0
+    if current > 0 then
+        nextElapsed = math.max(0, limit.window * (1 - (limit.limit - tokens) / current))
+    end
+    return math.ceil(limit.window - limit.elapsed + nextElapsed)
+end
+
+function slidingWindow.finish(key, limit, allConsumed)
+    local tokens = limit.tokens
+    local current = limit.current
+    if allConsumed then
+        current = math.max(current + tokens, 0)
+        redis.call('SET', key, string.format('%d:%d:%d', limit.index, current, limit.previous), 'PX',
+            math.ceil(2 * limit.window / 1000))
+    end
+    local refillWait = 0
+    if force then
+        refillWait = windowWait(limit, current, 0)
+    elseif not limit.consumed then
+        refillWait = windowWait(limit, limit.current, tokens)
+    end
+    local resetWait = 0
+    if limit.current > 0 or (limit.consumed and not allConsumed) or current > 0 then
+        resetWait = 2 * limit.window - limit.elapsed
+    elseif limit.previous > 0 then
+        resetWait = limit.window - limit.elapsed
+    end
+    local used = limit.estimate + (limit.consumed and tokens or 0)
+    return math.floor(math.max(limit.limit - used, 0)), refillWait, resetWait
+end
+
+local algorithms = { T = tokenBucket, G = gcra, S = slidingWindow }
+
+local limits = {}
+local allConsumed = true
+for k = 1, #KEYS do
+    local tokens = tonumber(nextArg())
+    local algorithm = algorithms[nextArg()]
+    local limit = algorithm.check(KEYS[k], tokens)
+    limit.algorithm = algorithm
+    limits[k] = limit
+    allConsumed = allConsumed and limit.consumed
+end
+
+local result = {}
+for k = 1, #KEYS do
+    local limit = limits[k]
+    local remaining, refillWait, resetWait = limit.algorithm.finish(KEYS[k], limit, allConsumed and not peek)
+    result[#result + 1] = limit.consumed and 1 or 0
+    result[#result + 1] = math.floor(math.max(remaining, 0))
+    result[#result + 1] = refillWait < 0 and -1 or math.ceil(refillWait) * 1000
+    result[#result + 1] = math.ceil(resetWait) * 1000
+end
+return result
@@ -0,0 +1,64 @@
+package com.payufin.integration.ratelimiter.aspects;
+
+import com.payufin.integration.ratelimiter.annotations.RateLimit;
+import com.payufin.integration.ratelimiter.models.RateLimitMode;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RateLimitAnnotationValidatorTest {
+
+    private final DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+
+    private final RateLimitAnnotationValidator validator = new RateLimitAnnotationValidator();
+
+    RateLimitAnnotationValidatorTest() {
+        beanFactory.registerSingleton("provider", new Object());
+        validator.setBeanFactory(beanFactory);
+    }
+
+    @Test
+    void acceptsRateAndConcurrencyAnnotations() {
+        Valid bean = new Valid();
+        assertSame(bean, validator.postProcessBeforeInitialization(bean, "valid"));
+    }
+
+    @Test
+    void rejectsRateAnnotationWithoutProvider() {
+        IllegalStateException ex = assertThrows(IllegalStateException.class,
+                () -> validator.postProcessBeforeInitialization(new WithoutProvider(), "withoutProvider"));
+        assertEquals("providerBeanName is required in RATE mode on WithoutProvider.call", ex.getMessage());
+    }
+
+    @Test
+    void rejectsRateAnnotationWithUnknownProvider() {
+        IllegalStateException ex = assertThrows(IllegalStateException.class,
+                () -> validator.postProcessBeforeInitialization(new WithUnknownProvider(), "withUnknownProvider"));
+        assertEquals("No provider bean named missing for RateLimit on WithUnknownProvider.call", ex.getMessage());
+    }
+
+    static class Valid {
+        @RateLimit(keyObjectName = "user", providerBeanName = "provider")
+        @RateLimit(mode = RateLimitMode.CONCURRENCY)
+        public String call(String user) {
+            return user;
+        }
+    }
+
+    static class WithoutProvider {
+        @RateLimit(keyObjectName = "user")
+        public String call(String user) {
+            return user;
+        }
+    }
+
+    static class WithUnknownProvider {
+        @RateLimit(keyObjectName = "user", providerBeanName = "missing")
+        public String call(String user) {
+            return user;
+        }
+    }
+}
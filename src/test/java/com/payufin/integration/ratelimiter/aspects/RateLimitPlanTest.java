@@ -0,0 +1,118 @@
+package com.payufin.integration.ratelimiter.aspects;
+
+import com.payufin.integration.ratelimiter.annotations.RateLimit;
+import com.payufin.integration.ratelimiter.configs.RateLimitConcurrencyProperties;
+import com.payufin.integration.ratelimiter.configs.RateLimitConfigProvider;
+import com.payufin.integration.ratelimiter.metrics.RateLimiterMetrics;
+import com.payufin.integration.ratelimiter.models.RateLimitKeyProvider;
+import com.payufin.integration.ratelimiter.models.RateLimitMode;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+
+class RateLimitPlanTest {
+
+    private static final String[] PARAMETER_NAMES = {"user", "items"};
+
+    private final DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+
+    RateLimitPlanTest() {
+        beanFactory.registerSingleton("provider", mock(RateLimitConfigProvider.class));
+    }
+
+    @Test
+    void keyComesFromTheNamedArgumentWithThePrefix() throws NoSuchMethodException {
+        RateLimitPlan.LimitPlan limitPlan = planOf("byArgument").getLimits()[0];
+
+        assertEquals(Collections.singletonList("login:u1"), limitPlan.getRateLimitKeys(new Object[]{"u1", null}));
+        assertEquals(Collections.singletonList(""), limitPlan.getRateLimitKeys(new Object[]{null, null}));
+    }
+
+    @Test
+    void keysComeFromAKeyProviderArgumentWithThePrefix() throws NoSuchMethodException {
+        RateLimitPlan.LimitPlan limitPlan = planOf("byArgument").getLimits()[0];
+        RateLimitKeyProvider keyProvider = () -> Arrays.asList("a", "b");
+
+        assertEquals(Arrays.asList("login:a", "login:b"), limitPlan.getRateLimitKeys(new Object[]{keyProvider, null}));
+    }
+
+    @Test
+    void defaultKeyIgnoresTheArguments() throws NoSuchMethodException {
+        RateLimitPlan.LimitPlan limitPlan = planOf("byDefaultKey").getLimits()[0];
+
+        assertEquals(Collections.singletonList("global:all"), limitPlan.getRateLimitKeys(new Object[]{"u1", null}));
+    }
+
+    @Test
+    void keyComesFromTheExpression() throws NoSuchMethodException {
+        RateLimitPlan.LimitPlan limitPlan = planOf("byExpression").getLimits()[0];
+
+        assertEquals(Collections.singletonList("length:2"), limitPlan.getRateLimitKeys(new Object[]{"u1", null}));
+        // A failing expression limits the call under the empty key instead of failing it.
+        assertEquals(Collections.singletonList(""), limitPlan.getRateLimitKeys(new Object[]{null, null}));
+    }
+
+    @Test
+    void costComesFromTheSizeOrValueOfTheCostArgument() throws NoSuchMethodException {
+        RateLimitPlan.LimitPlan limitPlan = planOf("byCost").getLimits()[0];
+
+        assertEquals(3, limitPlan.getCost(new Object[]{"u1", Arrays.asList("x", "y", "z")}));
+        assertEquals(2, limitPlan.getCost(new Object[]{"u1", new int[2]}));
+        assertEquals(4, limitPlan.getCost(new Object[]{"u1", 4L}));
+        assertEquals(5, limitPlan.getCost(new Object[]{"u1", null}));
+        assertEquals(1, limitPlan.getCost(new Object[]{"u1", Collections.emptyList()}));
+    }
+
+    @Test
+    void limitsAreOrderedByPriorityAndConcurrencySharesOneLimiter() throws NoSuchMethodException {
+        RateLimitPlan plan = planOf("byPriority");
+
+        assertEquals(2, plan.getLimits().length);
+        assertEquals("first:u1", plan.getLimits()[0].getRateLimitKeys(new Object[]{"u1", null}).get(0));
+        assertEquals("second:u1", plan.getLimits()[1].getRateLimitKeys(new Object[]{"u1", null}).get(0));
+        assertNotNull(plan.getConcurrencyLimiter());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), plan.getMaxWaitNanos());
+        assertNull(planOf("byArgument").getConcurrencyLimiter());
+    }
+
+    private RateLimitPlan planOf(String methodName) throws NoSuchMethodException {
+        Method method = Limited.class.getMethod(methodName, Object.class, Object.class);
+        RateLimiterMetrics metrics = new RateLimiterMetrics(beanFactory.getBeanProvider(MeterRegistry.class), beanFactory, false, 0);
+        return RateLimitPlan.of(method, PARAMETER_NAMES, beanFactory, metrics, new RateLimitConcurrencyProperties());
+    }
+
+    static class Limited {
+
+        @RateLimit(keyObjectName = "user", keyPrefix = "login:", providerBeanName = "provider")
+        public void byArgument(Object user, Object items) {
+        }
+
+        @RateLimit(defaultKey = "all", keyPrefix = "global:", providerBeanName = "provider")
+        public void byDefaultKey(Object user, Object items) {
+        }
+
+        @RateLimit(keyExpression = "#user.length()", keyPrefix = "length:", providerBeanName = "provider")
+        public void byExpression(Object user, Object items) {
+        }
+
+        @RateLimit(keyObjectName = "user", costObjectName = "items", cost = 5, providerBeanName = "provider")
+        public void byCost(Object user, Object items) {
+        }
+
+        @RateLimit(keyObjectName = "user", keyPrefix = "second:", priority = 2, maxWaitMillis = 200, providerBeanName = "provider")
+        @RateLimit(mode = RateLimitMode.CONCURRENCY)
+        @RateLimit(keyObjectName = "user", keyPrefix = "first:", priority = 1, maxWaitMillis = 100, providerBeanName = "provider")
+        public void byPriority(Object user, Object items) {
+        }
+    }
+}
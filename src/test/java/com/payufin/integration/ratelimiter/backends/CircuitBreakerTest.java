@@ -0,0 +1,82 @@
+package com.payufin.integration.ratelimiter.backends;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+
+    private static final long OPEN_DURATION_MILLIS = 50;
+
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(3, OPEN_DURATION_MILLIS);
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+        assertTrue(circuitBreaker.getNanosUntilProbe() > 0);
+    }
+
+    @Test
+    void successResetsTheConsecutiveFailures() {
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    void letsASingleProbeThroughWhichClosesTheCircuit() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION_MILLIS * 2);
+
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+        assertEquals(0, circuitBreaker.getNanosUntilProbe());
+
+        circuitBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    void failedProbeOpensTheCircuitAgain() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION_MILLIS * 2);
+
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    void successOfACallStartedBeforeTheCircuitOpenedIsIgnored() {
+        open();
+
+        circuitBreaker.onSuccess();
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+}
@@ -0,0 +1,112 @@
+package com.payufin.integration.ratelimiter.backends;
+
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import com.payufin.integration.ratelimiter.services.BucketConfigService;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.ConsumptionProbe;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CircuitBreakingBackendTest {
+
+    private static final long OPEN_DURATION_MILLIS = 50;
+
+    private final RateLimitBackend redisBackend = mock(RateLimitBackend.class);
+
+    private final Bucket redisBucket = mock(Bucket.class);
+
+    private final RateLimiterDto rateLimiterDto = RateLimiterDto.builder().key("key").active(true).maxLimit(10)
+            .timeUnit(ChronoUnit.MINUTES).build();
+
+    private CircuitBreakingBackend circuitBreakingBackend;
+
+    @AfterEach
+    void destroy() {
+        circuitBreakingBackend.destroy();
+    }
+
+    @Test
+    void resolveBucketDoesNotTakeTheProbeWhichClosesTheCircuit() throws InterruptedException {
+        circuitBreakingBackend = newBackend(CircuitBreakingBackend.FallbackPolicy.LOCAL);
+        openCircuit();
+        Thread.sleep(OPEN_DURATION_MILLIS * 2);
+
+        assertNotSame(redisBucket, circuitBreakingBackend.resolveBucket(rateLimiterDto));
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreakingBackend.getCircuitBreaker().getState());
+
+        when(redisBackend.tryConsumeAsync(any(), anyLong())).thenReturn(CompletableFuture.completedFuture(ConsumptionProbe.consumed(9, 0)));
+        assertEquals(9, circuitBreakingBackend.tryConsume(rateLimiterDto, 1).getRemainingTokens());
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreakingBackend.getCircuitBreaker().getState());
+        assertSame(redisBucket, circuitBreakingBackend.resolveBucket(rateLimiterDto));
+    }
+
+    @Test
+    void resolveBucketDoesNotTakeTheProbeWhichOpensTheCircuit() throws InterruptedException {
+        circuitBreakingBackend = newBackend(CircuitBreakingBackend.FallbackPolicy.FAIL_CLOSED);
+        openCircuit();
+        Thread.sleep(OPEN_DURATION_MILLIS * 2);
+
+        assertSame(redisBucket, circuitBreakingBackend.resolveBucket(rateLimiterDto));
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreakingBackend.getCircuitBreaker().getState());
+
+        assertFalse(circuitBreakingBackend.tryConsumeAsync(rateLimiterDto, 1).join().isConsumed());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreakingBackend.getCircuitBreaker().getState());
+    }
+
+    @Test
+    void lateConsumptionOfATimedOutCallIsGivenBack() {
+        circuitBreakingBackend = newBackend(CircuitBreakingBackend.FallbackPolicy.FAIL_OPEN);
+        CompletableFuture<ConsumptionProbe> lateConsumption = new CompletableFuture<>();
+        when(redisBackend.tryConsumeAsync(any(), anyLong())).thenReturn(lateConsumption);
+        when(redisBackend.refundAllAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        assertEquals(10, circuitBreakingBackend.tryConsume(rateLimiterDto, 2).getRemainingTokens());
+        lateConsumption.complete(ConsumptionProbe.consumed(8, 0));
+
+        verify(redisBackend, timeout(1000)).refundAllAsync(eq(Collections.singletonList(rateLimiterDto)), aryEq(new long[]{2}));
+    }
+
+    @Test
+    void lateConsumptionOfATimedOutAsyncCallIsGivenBack() {
+        circuitBreakingBackend = newBackend(CircuitBreakingBackend.FallbackPolicy.FAIL_OPEN);
+        CompletableFuture<ConsumptionProbe[]> lateConsumption = new CompletableFuture<>();
+        when(redisBackend.tryConsumeAllAsync(any(), any())).thenReturn(lateConsumption);
+        when(redisBackend.refundAllAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        assertEquals(1, circuitBreakingBackend.tryConsumeAllAsync(Collections.singletonList(rateLimiterDto), new long[]{3}).join().length);
+        lateConsumption.complete(new ConsumptionProbe[]{ConsumptionProbe.consumed(7, 0)});
+
+        verify(redisBackend, timeout(1000)).refundAllAsync(eq(Collections.singletonList(rateLimiterDto)), aryEq(new long[]{3}));
+    }
+
+    private CircuitBreakingBackend newBackend(CircuitBreakingBackend.FallbackPolicy fallbackPolicy) {
+        when(redisBackend.resolveBucket(any())).thenReturn(redisBucket);
+        return new CircuitBreakingBackend(redisBackend, new BucketConfigService(), 100, 1, OPEN_DURATION_MILLIS, fallbackPolicy,
+                1, 100, 60);
+    }
+
+    private void openCircuit() {
+        CompletableFuture<ConsumptionProbe> failedConsumption = new CompletableFuture<>();
+        failedConsumption.completeExceptionally(new IllegalStateException("Redis is down"));
+        when(redisBackend.tryConsumeAsync(any(), anyLong())).thenReturn(failedConsumption);
+        circuitBreakingBackend.tryConsume(rateLimiterDto, 1);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreakingBackend.getCircuitBreaker().getState());
+    }
+}
@@ -0,0 +1,180 @@
+package com.payufin.integration.ratelimiter.backends;
+
+import com.payufin.integration.ratelimiter.models.RateLimitAlgorithm;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import com.payufin.integration.ratelimiter.services.BucketConfigService;
+import io.github.bucket4j.ConsumptionProbe;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.config.Config;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LuaBucketBackendTest {
+
+    private static final int REDIS_PORT = 6390;
+
+    private static RedisServer redisServer;
+
+    private static RedissonClient redissonClient;
+
+    private static LuaBucketBackend luaBucketBackend;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redisServer = RedisServer.newRedisServer().port(REDIS_PORT).setting("bind 127.0.0.1").build();
+        redisServer.start();
+        Config config = new Config();
+        config.useSingleServer().setAddress("redis://127.0.0.1:" + REDIS_PORT);
+        redissonClient = Redisson.create(config);
+        luaBucketBackend = new LuaBucketBackend(((Redisson) redissonClient).getCommandExecutor(), new BucketConfigService(),
+                5, "MINUTES", 100, 60);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redissonClient.shutdown();
+        redisServer.stop();
+    }
+
+    @Test
+    void slotsConsumedBeforeAFailingSlotGetTheirTokensBack() throws Exception {
+        LuaBucketBackend luaBucketBackend = new LuaBucketBackend(((Redisson) redissonClient).getCommandExecutor(), new BucketConfigService(),
+                5, "MINUTES", 100, 60) {
+            @Override
+            int calcSlot(String bucketKey) {
+                return bucketKey.hashCode();
+            }
+
+            @Override
+            CompletableFuture<List<Object>> eval(List<Object> keys, List<Object> params) {
+                if (keys.get(0).toString().contains("down") && Long.parseLong(params.get(2).toString()) > 0) {
+                    CompletableFuture<List<Object>> failedEval = new CompletableFuture<>();
+                    failedEval.completeExceptionally(new IllegalStateException("slot is down"));
+                    return failedEval;
+                }
+                return super.eval(keys, params);
+            }
+        };
+        RateLimiterDto up = rateLimiterDto("refund-up", 5);
+        RateLimiterDto down = rateLimiterDto("refund-down", 5);
+
+        assertThrows(IllegalStateException.class, () -> luaBucketBackend.tryConsumeAll(Arrays.asList(up, down), new long[]{2, 2}));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (luaBucketBackend.peek(up, 0).getRemainingTokens() != 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        ConsumptionProbe consumptionProbe = luaBucketBackend.peek(up, 0);
+        assertEquals(5, consumptionProbe.getRemainingTokens());
+    }
+
+    @Test
+    void tokenBucketRejectsUntilTheNextRefillPeriod() {
+        RateLimiterDto rateLimiterDto = rateLimiterDto("tb", RateLimitAlgorithm.TOKEN_BUCKET, 5, ChronoUnit.HOURS);
+
+        ConsumptionProbe consumed = luaBucketBackend.tryConsume(rateLimiterDto, 3);
+        assertTrue(consumed.isConsumed());
+        assertEquals(2, consumed.getRemainingTokens());
+
+        ConsumptionProbe rejected = luaBucketBackend.tryConsume(rateLimiterDto, 3);
+        assertFalse(rejected.isConsumed());
+        assertEquals(2, rejected.getRemainingTokens());
+        assertTrue(rejected.getNanosToWaitForRefill() > TimeUnit.MINUTES.toNanos(59));
+        assertEquals(Long.MAX_VALUE, luaBucketBackend.tryConsume(rateLimiterDto, 6).getNanosToWaitForRefill());
+    }
+
+    @Test
+    void gcraSpacesTheRequestsByTheEmissionInterval() {
+        RateLimiterDto rateLimiterDto = rateLimiterDto("gcra", RateLimitAlgorithm.GCRA, 60, ChronoUnit.MINUTES);
+
+        ConsumptionProbe consumed = luaBucketBackend.tryConsume(rateLimiterDto, 60);
+        assertTrue(consumed.isConsumed());
+        assertEquals(0, consumed.getRemainingTokens());
+
+        ConsumptionProbe rejected = luaBucketBackend.tryConsume(rateLimiterDto, 1);
+        assertFalse(rejected.isConsumed());
+        assertTrue(rejected.getNanosToWaitForRefill() > TimeUnit.MILLISECONDS.toNanos(900)
+                && rejected.getNanosToWaitForRefill() <= TimeUnit.SECONDS.toNanos(1), String.valueOf(rejected.getNanosToWaitForRefill()));
+        assertEquals(Long.MAX_VALUE, luaBucketBackend.tryConsume(rateLimiterDto, 61).getNanosToWaitForRefill());
+    }
+
+    @Test
+    void slidingWindowRejectsOnceTheWindowIsFull() {
+        RateLimiterDto rateLimiterDto = rateLimiterDto("sw", RateLimitAlgorithm.SLIDING_WINDOW, 5, ChronoUnit.HOURS);
+
+        assertEquals(1, luaBucketBackend.tryConsume(rateLimiterDto, 4).getRemainingTokens());
+        assertEquals(0, luaBucketBackend.tryConsume(rateLimiterDto, 1).getRemainingTokens());
+
+        ConsumptionProbe rejected = luaBucketBackend.tryConsume(rateLimiterDto, 1);
+        assertFalse(rejected.isConsumed());
+        assertTrue(rejected.getNanosToWaitForRefill() > 0 && rejected.getNanosToWaitForRefill() <= TimeUnit.HOURS.toNanos(2));
+    }
+
+    @Test
+    void negativeTokensAreGivenBackUpToTheLimit() {
+        for (RateLimitAlgorithm algorithm : RateLimitAlgorithm.values()) {
+            RateLimiterDto rateLimiterDto = rateLimiterDto("refund-" + algorithm, algorithm, 5, ChronoUnit.HOURS);
+            assertTrue(luaBucketBackend.tryConsume(rateLimiterDto, 4).isConsumed());
+
+            assertTrue(luaBucketBackend.tryConsume(rateLimiterDto, -3).isConsumed());
+            assertEquals(4, luaBucketBackend.peek(rateLimiterDto, 0).getRemainingTokens(), algorithm.name());
+
+            luaBucketBackend.tryConsume(rateLimiterDto, -10);
+            assertEquals(5, luaBucketBackend.peek(rateLimiterDto, 0).getRemainingTokens(), algorithm.name());
+        }
+    }
+
+    @Test
+    void stateExpiresAfterTheTimeOfItsKey() {
+        luaBucketBackend.tryConsume(rateLimiterDto("px-second", RateLimitAlgorithm.TOKEN_BUCKET, 5, ChronoUnit.SECONDS), 1);
+        luaBucketBackend.tryConsume(rateLimiterDto("px-hour", RateLimitAlgorithm.TOKEN_BUCKET, 5, ChronoUnit.HOURS), 1);
+        luaBucketBackend.tryConsume(rateLimiterDto("px-gcra", RateLimitAlgorithm.GCRA, 60, ChronoUnit.MINUTES), 1);
+        luaBucketBackend.tryConsume(rateLimiterDto("px-sw", RateLimitAlgorithm.SLIDING_WINDOW, 5, ChronoUnit.MINUTES), 1);
+
+        assertBetween(1, 1001, timeToLive("ratelimiter:{px-second}"));
+        assertBetween(TimeUnit.MINUTES.toMillis(5) - 1000, TimeUnit.MINUTES.toMillis(5), timeToLive("ratelimiter:{px-hour}"));
+        assertBetween(1, 1001, timeToLive("ratelimiter:gcra:{px-gcra}"));
+        assertBetween(TimeUnit.MINUTES.toMillis(2) - 1000, TimeUnit.MINUTES.toMillis(2), timeToLive("ratelimiter:sw:{px-sw}"));
+    }
+
+    @Test
+    void peekDoesNotWriteTheState() {
+        RateLimiterDto rateLimiterDto = rateLimiterDto("peek", RateLimitAlgorithm.TOKEN_BUCKET, 5, ChronoUnit.HOURS);
+
+        assertEquals(3, luaBucketBackend.peek(rateLimiterDto, 2).getRemainingTokens());
+
+        assertFalse(redissonClient.getBucket("ratelimiter:{peek}", StringCodec.INSTANCE).isExists());
+    }
+
+    private static long timeToLive(String bucketKey) {
+        return redissonClient.getBucket(bucketKey, StringCodec.INSTANCE).remainTimeToLive();
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual >= min && actual <= max, actual + " is not between " + min + " and " + max);
+    }
+
+    private static RateLimiterDto rateLimiterDto(String key, int maxLimit) {
+        return rateLimiterDto(key, RateLimitAlgorithm.TOKEN_BUCKET, maxLimit, ChronoUnit.HOURS);
+    }
+
+    private static RateLimiterDto rateLimiterDto(String key, RateLimitAlgorithm algorithm, int maxLimit, ChronoUnit timeUnit) {
+        return RateLimiterDto.builder().key(key).active(true).maxLimit(maxLimit).timeUnit(timeUnit).algorithm(algorithm).build();
+    }
+}
@@ -0,0 +1,134 @@
+package com.payufin.integration.ratelimiter.backends;
+
+import com.payufin.integration.ratelimiter.models.RateLimitAlgorithm;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import com.payufin.integration.ratelimiter.services.BucketConfigService;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.SimpleBucketListener;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.config.Config;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScriptedBucketTest {
+
+    private static final int REDIS_PORT = 6391;
+
+    private static RedisServer redisServer;
+
+    private static RedissonClient redissonClient;
+
+    private static LuaBucketBackend luaBucketBackend;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redisServer = RedisServer.newRedisServer().port(REDIS_PORT).setting("bind 127.0.0.1").build();
+        redisServer.start();
+        Config config = new Config();
+        config.useSingleServer().setAddress("redis://127.0.0.1:" + REDIS_PORT);
+        redissonClient = Redisson.create(config);
+        luaBucketBackend = new LuaBucketBackend(((Redisson) redissonClient).getCommandExecutor(), new BucketConfigService(),
+                5, "MINUTES", 100, 60);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redissonClient.shutdown();
+        redisServer.stop();
+    }
+
+    @Test
+    void consumeIgnoringRateLimitsPutsTheLimitBelowZero() {
+        Bucket bucket = luaBucketBackend.resolveBucket(rateLimiterDto("ignoring", RateLimitAlgorithm.TOKEN_BUCKET, 5, ChronoUnit.HOURS));
+
+        assertTrue(bucket.consumeIgnoringRateLimits(7) > TimeUnit.MINUTES.toNanos(59));
+        assertFalse(bucket.tryConsume(1));
+
+        bucket.addTokens(2);
+        assertFalse(bucket.tryConsume(1));
+        bucket.addTokens(1);
+        assertTrue(bucket.tryConsume(1));
+    }
+
+    @Test
+    void consumeIgnoringRateLimitsPushesTheGcraLimit() {
+        Bucket bucket = luaBucketBackend.resolveBucket(rateLimiterDto("ignoring-gcra", RateLimitAlgorithm.GCRA, 5, ChronoUnit.HOURS));
+
+        long penaltyNanos = bucket.consumeIgnoringRateLimits(6);
+
+        assertTrue(penaltyNanos > TimeUnit.MINUTES.toNanos(11) && penaltyNanos <= TimeUnit.MINUTES.toNanos(12), String.valueOf(penaltyNanos));
+        assertFalse(bucket.tryConsume(1));
+    }
+
+    @Test
+    void forceAddTokensGoesAboveTheCapacity() {
+        Bucket bucket = luaBucketBackend.resolveBucket(rateLimiterDto("force", RateLimitAlgorithm.TOKEN_BUCKET, 5, ChronoUnit.HOURS));
+
+        bucket.addTokens(3);
+        assertEquals(5, bucket.getAvailableTokens());
+
+        bucket.forceAddTokens(3);
+        assertEquals(8, bucket.getAvailableTokens());
+        assertTrue(bucket.tryConsume(8));
+        assertEquals(0, bucket.getAvailableTokens());
+    }
+
+    @Test
+    void blockingBucketWaitsForTheRefill() throws InterruptedException {
+        Bucket bucket = luaBucketBackend.resolveBucket(rateLimiterDto("blocking", RateLimitAlgorithm.GCRA, 10, ChronoUnit.SECONDS));
+        assertTrue(bucket.tryConsume(10));
+
+        assertFalse(bucket.asBlocking().tryConsume(1, Duration.ofMillis(1)));
+        long startNanos = System.nanoTime();
+        assertTrue(bucket.asBlocking().tryConsume(1, Duration.ofSeconds(1)));
+        assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertThrows(IllegalArgumentException.class, () -> bucket.asBlocking().consume(11));
+    }
+
+    @Test
+    void schedulingBucketWaitsForTheRefill() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            Bucket bucket = luaBucketBackend.resolveBucket(rateLimiterDto("scheduling", RateLimitAlgorithm.GCRA, 10, ChronoUnit.SECONDS));
+            assertTrue(bucket.tryConsume(10));
+
+            assertFalse(bucket.asScheduler().tryConsume(1, Duration.ofMillis(1), scheduler).get(1, TimeUnit.SECONDS));
+            assertTrue(bucket.asScheduler().tryConsume(1, Duration.ofSeconds(1), scheduler).get(2, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void listenableBucketReportsTheConsumedAndRejectedTokens() {
+        SimpleBucketListener listener = new SimpleBucketListener();
+        Bucket bucket = luaBucketBackend.resolveBucket(rateLimiterDto("listenable", RateLimitAlgorithm.SLIDING_WINDOW, 5, ChronoUnit.HOURS))
+                .toListenable(listener);
+
+        assertTrue(bucket.tryConsume(3));
+        assertFalse(bucket.tryConsume(3));
+        assertEquals(2, bucket.tryConsumeAsMuchAsPossible());
+
+        assertEquals(5, listener.getConsumed());
+        assertEquals(3, listener.getRejected());
+    }
+
+    private static RateLimiterDto rateLimiterDto(String key, RateLimitAlgorithm algorithm, int maxLimit, ChronoUnit timeUnit) {
+        return RateLimiterDto.builder().key("scripted-" + key).active(true).maxLimit(maxLimit).timeUnit(timeUnit).algorithm(algorithm).build();
+    }
+}
@@ -0,0 +1,75 @@
+package com.payufin.integration.ratelimiter.services;
+
+import com.payufin.integration.ratelimiter.configs.RateLimitConcurrencyProperties;
+import com.payufin.integration.ratelimiter.exceptions.ConcurrencyLimitExceededException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    void acquiresUpToTheLimitThenRejects() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("limited", properties(2, 0.5));
+
+        limiter.acquire();
+        limiter.acquire();
+        assertThrows(ConcurrencyLimitExceededException.class, limiter::acquire);
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getRejected());
+
+        limiter.releaseIgnored();
+        assertEquals(1, limiter.getInFlight());
+        limiter.acquire();
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void fastCallsUsingHalfOfTheLimitRaiseIt() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("fast", properties(2, 0.5));
+
+        // One call in flight uses half of a limit of 2, but no longer half of a limit of 3.
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.release(nanosAgo(1));
+        }
+
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    void slowCallCutsTheLimitOncePerRound() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("slow", properties(10, 0.5));
+        Thread.sleep(50);
+
+        limiter.acquire();
+        limiter.release(nanosAgo(1));
+        limiter.acquire();
+        limiter.acquire();
+        limiter.release(nanosAgo(10));
+        assertEquals(5, limiter.getLimit());
+
+        // Started before the cut, so it saw the previous limit.
+        limiter.release(nanosAgo(20));
+        assertEquals(5, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private static long nanosAgo(long millis) {
+        return System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static RateLimitConcurrencyProperties properties(int initialLimit, double backoffRatio) {
+        RateLimitConcurrencyProperties properties = new RateLimitConcurrencyProperties();
+        properties.setInitialLimit(initialLimit);
+        properties.setMaxLimit(10);
+        properties.setBackoffRatio(backoffRatio);
+        properties.setLatencyTolerance(2.0);
+        return properties;
+    }
+}
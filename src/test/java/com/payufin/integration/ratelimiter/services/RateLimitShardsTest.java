@@ -0,0 +1,57 @@
+package com.payufin.integration.ratelimiter.services;
+
+import com.payufin.integration.ratelimiter.models.RateLimitBandwidth;
+import com.payufin.integration.ratelimiter.models.RateLimiterDto;
+import org.junit.jupiter.api.Test;
+
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class RateLimitShardsTest {
+
+    private final RateLimitShards rateLimitShards = new RateLimitShards(100, 60);
+
+    @Test
+    void bandwidthRemainderIsSpreadOverTheFirstShards() {
+        RateLimitBandwidth bandwidth = RateLimitBandwidth.builder().capacity(10).refillTokens(7).timeUnit(ChronoUnit.SECONDS).build();
+        RateLimiterDto[] shardDtos = rateLimitShards.shardsOf(rateLimiterDto("spread", 100, 4, bandwidth));
+
+        assertEquals(4, shardDtos.length);
+        long capacity = 0;
+        long refillTokens = 0;
+        for (RateLimiterDto shardDto : shardDtos) {
+            capacity += shardDto.getBandwidths().get(0).getCapacity();
+            refillTokens += shardDto.getBandwidths().get(0).getRefillTokens();
+        }
+        assertEquals(10, capacity);
+        assertEquals(7, refillTokens);
+        assertEquals(3, shardDtos[0].getBandwidths().get(0).getCapacity());
+        assertEquals(2, shardDtos[3].getBandwidths().get(0).getCapacity());
+    }
+
+    @Test
+    void shardCountIsCappedByTheSmallestBandwidth() {
+        RateLimitBandwidth bandwidth = RateLimitBandwidth.builder().capacity(3).timeUnit(ChronoUnit.SECONDS).build();
+        RateLimiterDto[] shardDtos = rateLimitShards.shardsOf(rateLimiterDto("capped", 100, 8, bandwidth));
+
+        assertEquals(3, shardDtos.length);
+        for (RateLimiterDto shardDto : shardDtos) {
+            assertEquals(1, shardDto.getBandwidths().get(0).getCapacity());
+        }
+    }
+
+    @Test
+    void singleTokenBandwidthIsNotSharded() {
+        RateLimitBandwidth bandwidth = RateLimitBandwidth.builder().capacity(5).refillTokens(1).timeUnit(ChronoUnit.SECONDS).build();
+
+        assertFalse(RateLimitShards.isSharded(rateLimiterDto("single", 100, 4, bandwidth)));
+    }
+
+    private static RateLimiterDto rateLimiterDto(String key, int maxLimit, int shards, RateLimitBandwidth bandwidth) {
+        return RateLimiterDto.builder().key(key).active(true).maxLimit(maxLimit).timeUnit(ChronoUnit.MINUTES).shards(shards)
+                .bandwidths(Collections.singletonList(bandwidth)).build();
+    }
+}